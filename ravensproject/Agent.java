@@ -2,16 +2,12 @@ package ravensproject;
 
 // Uncomment these lines to access image processing.
 
-import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 
 import javax.imageio.ImageIO;
 
@@ -28,6 +24,11 @@ import javax.imageio.ImageIO;
  * These methods will be necessary for the project's main method to run.
  */
 public class Agent {
+  // The weights of the Tversky ratio of the features only the first set has
+  // and of the features only the second set has
+  private static final double TVERSKY_ALPHA = 2.0;
+  private static final double TVERSKY_BETA = 1.0;
+
   /**
    * The default constructor for your Agent. Make sure to execute any
    * processing necessary before your Agent starts solving problems here.
@@ -66,875 +67,435 @@ public class Agent {
    */
   public int[] abstractionLevels = {1, 2, 4};
   // public int[] abstractionLevels = {1, 2, 4, 8, 23, 46};
+  // Encode each abstraction level on a quadtree that only splits fragments
+  // that are matched poorly, up to the grid size of the level
+  public boolean adaptivePartitioning = false;
+  // Seed each abstraction level with the matches of the previous level.
+  // Adaptive partitioning overrides seeding, its quadtrees are not seeded.
+  public boolean coarseToFineSeeding = false;
+  // The number of encodings to run at once, read when the first problem is
+  // solved
+  public int parallelism = Runtime.getRuntime().availableProcessors();
+  // Run every encoding on a virtual thread of its own, at most parallelism
+  // of them at once, read when the first problem is solved
+  public boolean virtualThreads = false;
+  // The number of following abstraction levels to encode while a level is
+  // encoded and scored, when there are spare cores. The levels past the one
+  // that answers are cancelled. Ignored when seeding, whose levels depend on
+  // one another.
+  public int speculativeLevels = 0;
+  // The time budget of every problem in milliseconds, 0 for none. A problem
+  // out of time is answered with the best answer of the last abstraction
+  // level completed.
+  public long timeBudgetMillis = 0;
+  // Runs the encodings of every problem, created by the first problem
+  private EncodingScheduler scheduler;
 
   public int Solve(RavensProblem problem) {
+    return Solve(problem, timeBudgetMillis);
+  }
+
+  /**
+   * Solves a problem within a time budget. Once the budget is spent the
+   * encodings give up, and the answer is the best answer of the last
+   * abstraction level completed, or -1 to skip the problem when no level was
+   * completed.
+   *
+   * @param problem the RavensProblem your agent should solve
+   * @param timeBudgetMillis The time budget in milliseconds, 0 for none.
+   * @return your Agent's answer to this problem
+   */
+  public int Solve(RavensProblem problem, long timeBudgetMillis) {
+    Deadline deadline = Deadline.after(timeBudgetMillis);
+
 //    if (problem.getProblemType().equals("2x2")) {
-//      return executeFractalAlgorithmTwoByTwo(problem);
 ////      // Skip problem set B
 ////      return -1;
 //    }
-//    else {
-//      return executeFractalAlgorithmThreeByThree(problem);
-//    }
+//    return executeFractalAlgorithm(problem, deadline);
     
     if (problem.getName().equals("Basic Problem C-02")) {
-      return executeFractalAlgorithmThreeByThree(problem);
+      return executeFractalAlgorithm(problem, deadline);
     }
     return -1;
   }
 
   /**
-   * Performs the fractal processing algorithm for a 2x2 RPM problem.
+   * Performs the fractal processing algorithm for an RPM problem of any
+   * matrix size within the time budget of this agent.
    *
    * @param problem The Raven's Problem to solve.
    * @return An integer number representing the agent's answer to the RPM problem.
    */
-  public int executeFractalAlgorithmTwoByTwo(RavensProblem problem) {
-    Map<String, BufferedImage> images = new HashMap<>();
-    int abstraction = 0;
-    int answer = -1;
-
-    // Open all images for problem
-    for (Map.Entry<String, RavensFigure> figure : problem.getFigures().entrySet()) {
-      images.put(figure.getKey(), convertToGrayscale(openImage(problem.getFigures().get(figure.getKey()).getVisual())));
-    }
-
-    System.out.println("Problem: " + problem.getName());
-    while (answer == -1 && abstraction < abstractionLevels.length) {
-      System.out.println("Abstraction level: " + abstractionLevels[abstraction]);
-      // Figure number as key and similarity score as value
-      Map<Integer, Double> similarities = new HashMap<>();
-      // Relationship sets
-      Set<FractalRepresentation> horizontalRelations = new HashSet<>();
-      Set<FractalRepresentation> verticalRelations = new HashSet<>();
-      
-      // Get the fractal representations for each relationship simultaneously
-      MutualFractalsCommand horizontalFractalsCommand = new MutualFractalsCommand(
-          images.get("A"),
-          images.get("B"),
-          abstractionLevels[abstraction]
-      );
-      Thread horizontalThread= new Thread(horizontalFractalsCommand);
-      MutualFractalsCommand verticalFractalsCommand = new MutualFractalsCommand(
-          images.get("A"),
-          images.get("C"),
-          abstractionLevels[abstraction]
-      );
-      Thread verticalThread = new Thread(verticalFractalsCommand);
-      horizontalThread.start();
-      verticalThread.start();
-      try {
-        horizontalThread.join();
-        verticalThread.join();
-      } 
-      catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-      horizontalRelations.addAll(horizontalFractalsCommand.getFractals());
-      verticalRelations.addAll(verticalFractalsCommand.getFractals());
-
-      for (Map.Entry<String, RavensFigure> figure : problem.getFigures().entrySet()) {
-        if (Character.isDigit(figure.getKey().charAt(0))) {
-          // Answer relationship sets
-          Set<FractalRepresentation> answerHorizontal = new HashSet<>();
-          Set<FractalRepresentation> answerVertical = new HashSet<>();
-          // Similarity vector
-          double[] vector = new double[2];
-          
-          // Get the fractal representations for each relationship simultaneously
-          MutualFractalsCommand answerHorizontalCommand = new MutualFractalsCommand(
-              images.get("C"),
-              images.get(figure.getKey()),
-              abstractionLevels[abstraction]
-          );
-          Thread answerHorizontalThread= new Thread(answerHorizontalCommand);
-          MutualFractalsCommand answerVerticalCommand = new MutualFractalsCommand(
-              images.get("B"),
-              images.get(figure.getKey()),
-              abstractionLevels[abstraction]
-          );
-          Thread answerVerticalThread = new Thread(answerVerticalCommand);
-          answerHorizontalThread.start();
-          answerVerticalThread.start();
-          try {
-            answerHorizontalThread.join();
-            answerVerticalThread.join();
-          } 
-          catch (InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-          }
-          answerHorizontal.addAll(answerHorizontalCommand.getFractals());
-          answerVertical.addAll(answerVerticalCommand.getFractals());
-
-          vector[0] = calculateSimilarity(horizontalRelations, answerHorizontal);
-          vector[1] = calculateSimilarity(verticalRelations, answerVertical);
-
-          similarities.put(Integer.valueOf(figure.getKey()), calculateEuclideanDistance(vector));
-        }
-      }
-
-      // Find the answer with the highest similarity value
-      Double maxSimilarity = null;
-      for (Map.Entry<Integer, Double> entry : similarities.entrySet()) {
-        if (maxSimilarity == null || maxSimilarity < entry.getValue()) {
-          maxSimilarity = entry.getValue();
-        }
-      }
-
-      // Normalize data for a range of 0.0-1.0
-      for (Map.Entry<Integer, Double> entry : similarities.entrySet()) {
-        entry.setValue(entry.getValue() / maxSimilarity);
-      }
-
-      // Calculate mean
-      double mean = mean(similarities.values());
-      // Calculate standard deviation
-      double standardDeviation = standardDeviation(similarities.values(), mean);
-      // Calculate standard error
-      double standardError = standardError(similarities.size(), standardDeviation);
-      // Calculate getDeviations
-      Map<Integer, Double> deviations = getDeviations(similarities, mean, standardError);
-
-      // Get most confident answer
-      double threshold = getConfidenceThreshold();
-      List<Integer> answers = new ArrayList<>();
-      for (Map.Entry<Integer, Double> deviation : deviations.entrySet()) {
-        if (deviation.getValue() > threshold)
-          answers.add(deviation.getKey());
-      }
-
-      if (answers.size() == 1)
-        answer = answers.get(0);
-
-      // Move to next level of abstraction
-      abstraction++;
-    }
-
-    System.out.println("Answer: " + answer);
-    return answer;
+  public int executeFractalAlgorithm(RavensProblem problem) {
+    return executeFractalAlgorithm(problem, Deadline.after(timeBudgetMillis));
   }
 
   /**
-   * Performs the fractal processing algorithm for a 3x3 RPM problem.
+   * Performs the fractal processing algorithm for an RPM problem of any
+   * matrix size. The relationships of the matrix are derived from the figure
+   * names, and every distinct pair of figures is encoded once per level.
    *
    * @param problem The Raven's Problem to solve.
+   * @param deadline The time by which the best answer so far is taken.
    * @return An integer number representing the agent's answer to the RPM problem.
    */
-  public int executeFractalAlgorithmThreeByThree(RavensProblem problem) {
-    Map<String, BufferedImage> images = new HashMap<>();
-    int abstraction = 0;
-    int answer = -1;
-
-    // Open all images for problem
-    for (Map.Entry<String, RavensFigure> figure : problem.getFigures().entrySet()) {
-      images.put(figure.getKey(), convertToGrayscale(openImage(problem.getFigures().get(figure.getKey()).getVisual())));
-    }
+  public int executeFractalAlgorithm(RavensProblem problem, Deadline deadline) {
+    RelationGraph relations = new RelationGraph(problem.getFigures().keySet());
+    FractalEncodingCache cache = createEncodingCache(problem, deadline);
 
     System.out.println("Problem: " + problem.getName());
-    while (answer == -1 && abstraction < abstractionLevels.length) {
-      System.out.println("Abstraction level: " + abstractionLevels[abstraction]);
-      // Figure number as key and similarity score as value
-      Map<Integer, Double> similarities = new HashMap<>();
-      // Relationship sets
-      Set<FractalRepresentation> horizontalRelations1 = new HashSet<>();
-      Set<FractalRepresentation> horizontalRelations2 = new HashSet<>();
-      Set<FractalRepresentation> verticalRelations1 = new HashSet<>();
-      Set<FractalRepresentation> verticalRelations2 = new HashSet<>();
-      
-      // Get the fractal representations for each horizontal relationship simultaneously
-      MutualFractalsCommand horizontalFractalsCommand1 = new MutualFractalsCommand(
-          images.get("A"),
-          images.get("B"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand horizontalFractalsCommand2 = new MutualFractalsCommand(
-          images.get("B"),
-          images.get("C"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand horizontalFractalsCommand3 = new MutualFractalsCommand(
-          images.get("A"),
-          images.get("C"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand horizontalFractalsCommand4 = new MutualFractalsCommand(
-          images.get("D"),
-          images.get("E"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand horizontalFractalsCommand5 = new MutualFractalsCommand(
-          images.get("E"),
-          images.get("F"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand horizontalFractalsCommand6 = new MutualFractalsCommand(
-          images.get("D"),
-          images.get("F"),
-          abstractionLevels[abstraction]
-      );
-      Thread horizontalThread1 = new Thread(horizontalFractalsCommand1);
-      Thread horizontalThread2 = new Thread(horizontalFractalsCommand2);
-      Thread horizontalThread3 = new Thread(horizontalFractalsCommand3);
-      Thread horizontalThread4 = new Thread(horizontalFractalsCommand4);
-      Thread horizontalThread5 = new Thread(horizontalFractalsCommand5);
-      Thread horizontalThread6 = new Thread(horizontalFractalsCommand6);
-      horizontalThread1.start();
-      horizontalThread2.start();
-      horizontalThread3.start();
-      try {
-        horizontalThread1.join();
-        horizontalThread2.join();
-        horizontalThread3.join();
-      } 
-      catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-      horizontalRelations1.addAll(horizontalFractalsCommand1.getFractals());
-      horizontalRelations1.addAll(horizontalFractalsCommand2.getFractals());
-      horizontalRelations1.addAll(horizontalFractalsCommand3.getFractals());
-      horizontalThread4.start();
-      horizontalThread5.start();
-      horizontalThread6.start();
-      try {
-        horizontalThread4.join();
-        horizontalThread5.join();
-        horizontalThread6.join();
-      } 
-      catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-      horizontalRelations2.addAll(horizontalFractalsCommand4.getFractals());
-      horizontalRelations2.addAll(horizontalFractalsCommand5.getFractals());
-      horizontalRelations2.addAll(horizontalFractalsCommand6.getFractals());
-      
-      // Get the fractal representations for each vertical relationship simultaneously
-      MutualFractalsCommand verticalFractalsCommand1 = new MutualFractalsCommand(
-          images.get("A"),
-          images.get("D"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand verticalFractalsCommand2 = new MutualFractalsCommand(
-          images.get("D"),
-          images.get("G"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand verticalFractalsCommand3 = new MutualFractalsCommand(
-          images.get("A"),
-          images.get("G"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand verticalFractalsCommand4 = new MutualFractalsCommand(
-          images.get("B"),
-          images.get("E"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand verticalFractalsCommand5 = new MutualFractalsCommand(
-          images.get("E"),
-          images.get("H"),
-          abstractionLevels[abstraction]
-      );
-      MutualFractalsCommand verticalFractalsCommand6 = new MutualFractalsCommand(
-          images.get("B"),
-          images.get("H"),
-          abstractionLevels[abstraction]
-      );
-      Thread verticalThread1 = new Thread(verticalFractalsCommand1);
-      Thread verticalThread2 = new Thread(verticalFractalsCommand2);
-      Thread verticalThread3 = new Thread(verticalFractalsCommand3);
-      Thread verticalThread4 = new Thread(verticalFractalsCommand4);
-      Thread verticalThread5 = new Thread(verticalFractalsCommand5);
-      Thread verticalThread6 = new Thread(verticalFractalsCommand6);
-      verticalThread1.start();
-      verticalThread2.start();
-      verticalThread3.start();
-      try {
-        verticalThread1.join();
-        verticalThread2.join();
-        verticalThread3.join();
-      } 
-      catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-      verticalRelations1.addAll(verticalFractalsCommand1.getFractals());
-      verticalRelations1.addAll(verticalFractalsCommand2.getFractals());
-      verticalRelations1.addAll(verticalFractalsCommand3.getFractals());
-      verticalThread4.start();
-      verticalThread5.start();
-      verticalThread6.start();
-      try {
-        verticalThread4.join();
-        verticalThread5.join();
-        verticalThread6.join();
-      } 
-      catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-      verticalRelations2.addAll(verticalFractalsCommand4.getFractals());
-      verticalRelations2.addAll(verticalFractalsCommand5.getFractals());
-      verticalRelations2.addAll(verticalFractalsCommand6.getFractals());
-
-      for (Map.Entry<String, RavensFigure> figure : problem.getFigures().entrySet()) {
-        if (Character.isDigit(figure.getKey().charAt(0))) {
-          // Answer relationship sets
-          Set<FractalRepresentation> answerHorizontal = new HashSet<>();
-          Set<FractalRepresentation> answerVertical = new HashSet<>();
-          // Similarity vector
-          double[] vector = new double[4];
-          
-          // Get the fractal representations for each relationship simultaneously
-          MutualFractalsCommand answerHorizontalCommand1 = new MutualFractalsCommand(
-              images.get("G"),
-              images.get("H"),
-              abstractionLevels[abstraction]
-          );
-          MutualFractalsCommand answerHorizontalCommand2 = new MutualFractalsCommand(
-              images.get("H"),
-              images.get(figure.getKey()),
-              abstractionLevels[abstraction]
-          );
-          MutualFractalsCommand answerHorizontalCommand3 = new MutualFractalsCommand(
-              images.get("G"),
-              images.get(figure.getKey()),
-              abstractionLevels[abstraction]
-          );
-          Thread answerHorizontalThread1 = new Thread(answerHorizontalCommand1);
-          Thread answerHorizontalThread2 = new Thread(answerHorizontalCommand2);
-          Thread answerHorizontalThread3 = new Thread(answerHorizontalCommand3);
-          answerHorizontalThread1.start();
-          answerHorizontalThread2.start();
-          answerHorizontalThread3.start();
-          try {
-            answerHorizontalThread1.join();
-            answerHorizontalThread2.join();
-            answerHorizontalThread3.join();
-          } 
-          catch (InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-          }
-          answerHorizontal.addAll(answerHorizontalCommand1.getFractals());
-          answerHorizontal.addAll(answerHorizontalCommand2.getFractals());
-          answerHorizontal.addAll(answerHorizontalCommand3.getFractals());
-                    
-          MutualFractalsCommand answerVerticalCommand1 = new MutualFractalsCommand(
-              images.get("C"),
-              images.get("F"),
-              abstractionLevels[abstraction]
-          );
-          MutualFractalsCommand answerVerticalCommand2 = new MutualFractalsCommand(
-              images.get("F"),
-              images.get(figure.getKey()),
-              abstractionLevels[abstraction]
-          );
-          MutualFractalsCommand answerVerticalCommand3 = new MutualFractalsCommand(
-              images.get("C"),
-              images.get(figure.getKey()),
-              abstractionLevels[abstraction]
-          );
-          Thread answerVerticalThread1 = new Thread(answerVerticalCommand1);
-          Thread answerVerticalThread2 = new Thread(answerVerticalCommand2);
-          Thread answerVerticalThread3 = new Thread(answerVerticalCommand3);
-          answerVerticalThread1.start();
-          answerVerticalThread2.start();
-          answerVerticalThread3.start();
-          try {
-            answerVerticalThread1.join();
-            answerVerticalThread2.join();
-            answerVerticalThread3.join();
-          } 
-          catch (InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-          }
-          answerVertical.addAll(answerVerticalCommand1.getFractals());
-          answerVertical.addAll(answerVerticalCommand2.getFractals());
-          answerVertical.addAll(answerVerticalCommand3.getFractals());
-
-          vector[0] = calculateSimilarity(horizontalRelations1, answerHorizontal);
-          vector[1] = calculateSimilarity(horizontalRelations2, answerHorizontal);
-          vector[2] = calculateSimilarity(verticalRelations1, answerVertical);
-          vector[3] = calculateSimilarity(verticalRelations2, answerVertical);
-
-          similarities.put(Integer.valueOf(figure.getKey()), calculateEuclideanDistance(vector));
-        }
-      }
-
-      // Find the answer with the highest similarity value
-      Double maxSimilarity = null;
-      for (Map.Entry<Integer, Double> entry : similarities.entrySet()) {
-        if (maxSimilarity == null || maxSimilarity < entry.getValue()) {
-          maxSimilarity = entry.getValue();
-        }
-      }
-
-      // Normalize data for a range of 0.0-1.0
-      for (Map.Entry<Integer, Double> entry : similarities.entrySet()) {
-        entry.setValue(entry.getValue() / maxSimilarity);
-      }
-
-      // Calculate mean
-      double mean = mean(similarities.values());
-      // Calculate standard deviation
-      double standardDeviation = standardDeviation(similarities.values(), mean);
-      // Calculate standard error
-      double standardError = standardError(similarities.size(), standardDeviation);
-      // Calculate getDeviations
-      Map<Integer, Double> deviations = getDeviations(similarities, mean, standardError);
-
-      // Get most confident answer
-      double threshold = getConfidenceThreshold();
-      List<Integer> answers = new ArrayList<>();
-      for (Map.Entry<Integer, Double> deviation : deviations.entrySet()) {
-        if (deviation.getValue() > threshold)
-          answers.add(deviation.getKey());
-      }
-
-      if (answers.size() == 1)
-        answer = answers.get(0);
-
-      // Move to next level of abstraction
-      abstraction++;
-    }
+    int answer = solveLevels(relations, cache, deadline);
 
     System.out.println("Answer: " + answer);
     return answer;
   }
 
   /**
-   * Returns a set of fractal representations for two images.
+   * Opens the figures of a problem and creates the cache their encodings are
+   * kept in.
    *
-   * @param image1
-   * @param image2
-   * @param abstractionLevel The size of the grid to partition the image with.
-   * @return A set of FractalRepresentation objects.
+   * @param problem
+   * @param deadline The time by which the encodings give up.
+   * @return The encoding cache of the problem.
    */
-  public Set<FractalRepresentation> getMutualFractals(
-      BufferedImage image1, 
-      BufferedImage image2, 
-      int abstractionLevel) {
-    Set<FractalRepresentation> fractals = new HashSet<>();
+  private FractalEncodingCache createEncodingCache(RavensProblem problem, Deadline deadline) {
+    Map<String, GrayPlane> images = new HashMap<>();
 
-    fractals.addAll(getFractals(image1, image2, abstractionLevel));
-    fractals.addAll(getFractals(image2, image1, abstractionLevel));
-
-    return fractals;
+    // Open all images for problem
+    for (Map.Entry<String, RavensFigure> figure : problem.getFigures().entrySet()) {
+      images.put(figure.getKey(), GrayPlane.fromImage(convertToGrayscale(openImage(problem.getFigures().get(figure.getKey()).getVisual()))));
+    }
+    // Encodes and featurizes each directed pair of figures once per level, and keeps the
+    // matches of each level to seed the next level with when asked to
+    return new FractalEncodingCache(
+        images,
+        adaptivePartitioning,
+        isSeeding() ? new CoarseToFineEncoder() : null,
+        deadline
+    );
   }
 
   /**
-   * Returns a set of fractal representations for three images.
+   * Returns true when the abstraction levels are seeded with the matches of
+   * the previous level. Adaptive partitioning overrides seeding.
    *
-   * @param image1
-   * @param image2
-   * @param image3
-   * @param abstractionLevel The size of the grid to partition the image with.
-   * @return A set of FractalRepresentation objects.
+   * @return True if the levels are seeded.
    */
-  public Set<FractalRepresentation> getMutualFractalsThreeByThree(
-      BufferedImage image1, 
-      BufferedImage image2, 
-      BufferedImage image3,
-      int abstractionLevel) {
-    Set<FractalRepresentation> fractals = new HashSet<>();
-
-    fractals.addAll(getMutualFractals(image1, image2, abstractionLevel));
-    fractals.addAll(getMutualFractals(image2, image3, abstractionLevel));
-    fractals.addAll(getMutualFractals(image1, image3, abstractionLevel));
-
-    return fractals;
+  private boolean isSeeding() {
+    return coarseToFineSeeding && !adaptivePartitioning;
   }
 
   /**
-   * Returns a set of fractal codes for two images.
+   * Encodes and scores the abstraction levels in order until one of them
+   * yields a single confident answer. With speculative levels the encodings
+   * of the following levels start while a level is encoded and scored, and
+   * those past the level that answers are cancelled, so the answer is the
+   * one found by encoding the levels one at a time.
    *
-   * @param source
-   * @param destination
-   * @param abstractionLevel The size of the grid to partition the image with.
-   * @return A set of FractalRepresentation objects.
+   * Once the deadline passes the encodings give up, and the answer is the
+   * best answer of the last level completed.
+   *
+   * @param relations The relationships of the problem's matrix.
+   * @param cache The encoding cache of the problem.
+   * @param deadline The time by which the best answer so far is taken.
+   * @return The answer, or -1 if no level yields a single confident answer
+   *         and the deadline did not pass, or if no level was completed.
    */
-  public Set<FractalRepresentation> getFractals(BufferedImage source, BufferedImage destination, int abstractionLevel) {
-    Set<FractalRepresentation> fractals = new HashSet<>();
-
-    // Partition images into a grid of image fragments
-    BufferedImage[][] sourceFragments = partitionImage(source, abstractionLevel);
-    BufferedImage[][] destinationFragments = partitionImage(destination, abstractionLevel);
-    Map<Pair<Integer, Integer>, int[][]> sourceFragmentPixelMatrices = new HashMap<>();
-    Map<Pair<Integer, Integer>, int[][]> destinationFragmentPixelMatrices = new HashMap<>();
-    // Transformation name as key and transformed image as value
-    Map<String, int[][]> transformations = new LinkedHashMap<>();
-    // Transformation name as key and correspondence score as value
-    Map<String, Double> transformCorrespondences = new LinkedHashMap<>();
-    // Fragment location as key and transformation as value
-    Map<Pair<Integer, Integer>, String> fragmentTransformations = new LinkedHashMap<>();
-    // Fragment location as key and correspondence score as value
-    Map<Pair<Integer, Integer>, Double> fragmentCorrespondences = new LinkedHashMap<>();
-    
-    // Create pixel matrix for image fragments
-    for (int i = 0; i < destinationFragments.length; i++) {
-      for (int j = 0; j < destinationFragments.length; j++) {
-        sourceFragmentPixelMatrices.put(new Pair<>(i, j) ,getGrayscalePixelMatrix(sourceFragments[i][j]));
-        destinationFragmentPixelMatrices.put(new Pair<>(i, j) ,getGrayscalePixelMatrix(destinationFragments[i][j]));
-      }
-    }
+  private int solveLevels(RelationGraph relations, FractalEncodingCache cache, Deadline deadline) {
+    // Seeded levels need the matches of the previous level
+    int lookahead = isSeeding() ? 0 : Math.max(0, speculativeLevels);
+    // The commands of every figure pair of the levels started so far
+    List<List<MutualFractalsCommand>> levels = new ArrayList<>();
+    List<EncodingScheduler.Batch> batches = new ArrayList<>();
+    int abstraction = 0;
+    int answer = -1;
+    // The best answer of the last level completed
+    int bestAnswer = -1;
 
-    // Iterate through destination image fragments
-    for (int i = 0; i < destinationFragments.length; i++) {
-      for (int j = 0; j < destinationFragments.length; j++) {
-        // Iterate through source image fragments
-        for (int x = 0; x < sourceFragments.length; x++) {
-          for (int y = 0; y < sourceFragments.length; y++) {
-            // Get each affine transformation for the source image fragment
-            // Identity
-            transformations.put("identity", sourceFragmentPixelMatrices.get(new Pair<>(x, y)));
-            // Horizontal flip
-            transformations.put("hFlip", getGrayscalePixelMatrix(horizontalFlip(sourceFragments[x][y])));
-            // Vertical flip
-            transformations.put("vFlip", getGrayscalePixelMatrix(verticalFlip(sourceFragments[x][y])));
-            // Rotate 90 degrees
-            transformations.put("r90", getGrayscalePixelMatrix(rotateImage(sourceFragments[x][y], Math.PI / 2)));
-            // Rotate 180 degrees
-            transformations.put("r180", getGrayscalePixelMatrix(rotateImage(sourceFragments[x][y], Math.PI)));
-            // Rotate 270 degrees
-            transformations.put("r270", getGrayscalePixelMatrix(rotateImage(sourceFragments[x][y], 3 * Math.PI / 2)));
-            // Reflect ynx
-            transformations.put("reflYNX", getGrayscalePixelMatrix(rotate90Flip(sourceFragments[x][y])));
-            // Reflect yx
-            transformations.put("reflYX", getGrayscalePixelMatrix(rotate270Flip(sourceFragments[x][y])));
-
-            // Get the correspondence value for each transformation
-            for (Map.Entry<String, int[][]> transformation : transformations.entrySet()) {
-              transformCorrespondences.put(
-                  transformation.getKey(),
-                  getCorrespondence(
-                      transformation.getValue(), 
-                      destinationFragmentPixelMatrices.get(new Pair<>(i, j)), 
-                      new Pair<>(x, y), 
-                      new Pair<>(i, j)
-                  )
-              );
-            }
-
-            // Find the transformation with the lowest correspondence value
-            Map.Entry<String, Double> minimumTransform = null;
-            for (Map.Entry<String, Double> entry : transformCorrespondences.entrySet()) {
-              if (minimumTransform == null || minimumTransform.getValue() > entry.getValue()) {
-                minimumTransform = entry;
-              }
-            }
-
-            // Store the fragment with its transformation and correspondence value
-            fragmentTransformations.put(new Pair<>(x, y), minimumTransform.getKey());
-            fragmentCorrespondences.put(new Pair<>(x, y), minimumTransform.getValue());
-          }
+    try {
+      while (answer == -1 && abstraction < abstractionLevels.length) {
+        // Do not wait for another level once out of time
+        deadline.check();
+
+        // Start this level and the speculative levels after it
+        while (levels.size() < Math.min(abstractionLevels.length, abstraction + 1 + lookahead)) {
+          Cancellation cancellation = new Cancellation();
+          List<MutualFractalsCommand> commands = relations.createCommands(cache, abstractionLevels[levels.size()],
+              cancellation);
+
+          batches.add(getScheduler().submitAll(commands, cancellation));
+          levels.add(commands);
         }
 
-        // Get the fragment with the lowest correspondence value
-        Map.Entry<Pair<Integer, Integer>, Double> correspondingFragment = null;
-        for (Map.Entry<Pair<Integer, Integer>, Double> entry : fragmentCorrespondences.entrySet()) {
-          if (correspondingFragment == null || correspondingFragment.getValue() > entry.getValue()) {
-            correspondingFragment = entry;
-          }
-        }
+        System.out.println("Abstraction level: " + abstractionLevels[abstraction]);
+        // Get the fractal representations for every relationship simultaneously
+        batches.get(abstraction).await();
+        Map<Integer, Double> similarities = scoreLevel(relations, levels.get(abstraction));
+
+        bestAnswer = getBestAnswer(similarities);
+        answer = getConfidentAnswer(similarities);
 
-        // Create the Fractal Representation from the fractal codes
-        FractalRepresentation fractal = new FractalRepresentation(
-            correspondingFragment.getKey(),
-            new Pair<>(i, j),
-            fragmentTransformations.get(correspondingFragment.getKey()),
-            destinationFragments[i][j].getHeight(),
-            getColorContraction(
-                sourceFragmentPixelMatrices.get(new Pair<>(
-                    correspondingFragment.getKey().getElement0(), 
-                    correspondingFragment.getKey().getElement1()
-                )),
-                destinationFragmentPixelMatrices.get(new Pair<>(i, j))
-            )
-        );
-
-        // Store fractal representation
-        fractals.add(fractal);
+        // Move to next level of abstraction
+        abstraction++;
       }
     }
+    catch (CancellationException e) {
+      if (!deadline.hasPassed())
+        throw e;
 
-    return fractals;
-  }
-
-  /**
-   * Returns a set of fractal features for a fractal representation.
-   *
-   * @param fractal
-   * @return A set of String objects representing the fractal features for a representation.
-   */
-  public Set<String> getFractalFeatures(FractalRepresentation fractal) {
-    Set<String> features = new HashSet<>();
-
-    features.add("S" + fractal.getSourceFragmentOrigin().toString());
-    features.add("D" + fractal.getDestinationFragmentOrigin().toString());
-    features.add("T" + fractal.getOrthonormalTransformation());
-    features.add("R" + fractal.getRegionSize());
-    features.add("C" + fractal.getColorimetricContraction());
+      System.out.println("Deadline passed, " + (abstraction == 0 ? "no level completed"
+          : "answering from abstraction level " + abstractionLevels[abstraction - 1]));
+      answer = bestAnswer;
+    }
+    finally {
+      // Stop the encodings of the speculative levels that are not needed
+      for (EncodingScheduler.Batch batch : batches) {
+        batch.cancel();
+      }
+    }
 
-    return features;
+    return answer;
   }
 
   /**
-   * This method calculates the Tversky ratio for two sets of fractal representations.
+   * Scores the answers of an encoded abstraction level. Every answer is
+   * compared with the complete rows in the last row it completes and with
+   * the complete columns in the last column it completes, and its similarity
+   * is the length of the vector of those comparisons.
    *
-   * @param fractalSet1
-   * @param fractalSet2
-   * @return The Tversky ratio for two sets of fractal representations.
+   * @param relations The relationships of the problem's matrix.
+   * @param commands The commands of every figure pair of the level, all run.
+   * @return Figure number as key and similarity score as value.
    */
-  public double calculateSimilarity(Set<FractalRepresentation> fractalSet1, Set<FractalRepresentation> fractalSet2) {
-    Set<String> fractalSet1Features = new HashSet<>();
-    Set<String> fractalSet2Features = new HashSet<>();
-    Set<String> set1 = new HashSet<>();
-    Set<String> set2 = new HashSet<>();
-    Set<String> set3 = new HashSet<>();
-    double alpha = 2.0;
-    double beta = 1.0;
-
-    // Generate set of features for fractals in first set
-    for (FractalRepresentation fractal : fractalSet1) {
-      fractalSet1Features.addAll(getFractalFeatures(fractal));
-    }
+  private Map<Integer, Double> scoreLevel(RelationGraph relations, List<MutualFractalsCommand> commands) {
+    // Figure number as key and similarity score as value
+    Map<Integer, Double> similarities = new HashMap<>();
+    // The features of every figure pair, shared by the relationships of the pair
+    FeatureSet[] pairFeatures = new FeatureSet[commands.size()];
+    // Compile the relationships once for every answer to be compared with
+    List<PreparedSimilarity> rowSimilarities = new ArrayList<>();
+    List<PreparedSimilarity> columnSimilarities = new ArrayList<>();
 
-    // Generate set of features for fractals in second set
-    for (FractalRepresentation fractal : fractalSet2) {
-      fractalSet2Features.addAll(getFractalFeatures(fractal));
+    for (int pair = 0; pair < commands.size(); pair++) {
+      pairFeatures[pair] = commands.get(pair).getFeatures();
+    }
+    for (int[] row : relations.getRows()) {
+      rowSimilarities.add(prepareSimilarity(getRelationFeatures(pairFeatures, row)));
+    }
+    for (int[] column : relations.getColumns()) {
+      columnSimilarities.add(prepareSimilarity(getRelationFeatures(pairFeatures, column)));
     }
 
-    set1.addAll(fractalSet1Features);
-    set1.retainAll(fractalSet2Features);
+    for (String answer : relations.getAnswers()) {
+      // Answer relationship sets
+      FeatureSet answerHorizontal = getRelationFeatures(pairFeatures, relations.getAnswerRow(answer));
+      FeatureSet answerVertical = getRelationFeatures(pairFeatures, relations.getAnswerColumn(answer));
+      // Similarity vector
+      double[] vector = new double[rowSimilarities.size() + columnSimilarities.size()];
+      int k = 0;
 
-    set2.addAll(fractalSet1Features);
-    set2.removeAll(fractalSet2Features);
+      for (PreparedSimilarity rowSimilarity : rowSimilarities) {
+        vector[k++] = rowSimilarity.getSimilarity(answerHorizontal);
+      }
+      for (PreparedSimilarity columnSimilarity : columnSimilarities) {
+        vector[k++] = columnSimilarity.getSimilarity(answerVertical);
+      }
 
-    set3.addAll(fractalSet2Features);
-    set3.removeAll(fractalSet1Features);
+      similarities.put(Integer.valueOf(answer), calculateEuclideanDistance(vector));
+    }
 
-    return set1.size() / (set1.size() + alpha * set2.size() + beta * set3.size());
+    return similarities;
   }
 
   /**
-   * This method returns the color contraction for two images.
+   * Returns the features of a relationship, the union of the features of its
+   * figure pairs.
    *
-   * @param pixelMatrixA
-   * @param pixelMatrixB
-   * @return
+   * @param pairFeatures The features of every figure pair.
+   * @param relation The indexes of the pairs of the relationship.
+   * @return A new set of features.
    */
-  public double getColorContraction(int[][] pixelMatrixA, int[][] pixelMatrixB) {
-    return 0.75 * (getColorMean(pixelMatrixB) - getColorMean(pixelMatrixA));
-  }
+  private FeatureSet getRelationFeatures(FeatureSet[] pairFeatures, int[] relation) {
+    FeatureSet features = new FeatureSet();
 
-  /**
-   * This method returns the mean color of an image. Credit goes to Dan O for
-   * the original code:
-   *
-   * http://stackoverflow.com/questions/12408431/how-can-i-get-the-average-colour-of-an-image
-   *
-   * @param pixelMatrix
-   * @return
-   */
-  public int getColorMean(int[][] pixelMatrix) {
-    long totalRed = 0;
-    long totalGreen = 0;
-    long totalBlue = 0;
-    int pixels = pixelMatrix.length * pixelMatrix.length;
-
-    for (int x = 0; x < pixelMatrix.length; x++) {
-      for (int y = 0; y < pixelMatrix.length; y++) {
-        // Get rgb values from pixel
-        int pixel = pixelMatrix[x][y];
-        int red = (pixel >> 16) & 0xFF;
-        int green = (pixel >> 8) & 0xFF;
-        int blue = pixel & 0xFF;
-
-        totalRed += red;
-        totalGreen += green;
-        totalBlue += blue;
-      }
+    for (int pair : relation) {
+      features.addAll(pairFeatures[pair]);
     }
 
-    // Scale the colors from 0-255 to 0.0-1.0
-    float red = (totalRed / pixels) / 255f;
-    float green = (totalGreen / pixels) / 255f;
-    float blue = (totalBlue / pixels) / 255f;
-
-    return new Color(red, green, blue).getRGB();
+    return features;
   }
 
   /**
-   * This method returns the correspondence between two images.
+   * Returns the answer with the highest similarity, the lowest figure number
+   * among equal ones.
    *
-   * @param pixelMatrixA
-   * @param pixelMatrixB
-   * @param aFragmentOrigin
-   * @param bFragmentOrigin
-   * @return
+   * @param similarities Figure number as key and similarity score as value.
+   * @return The best answer, or -1 if there are no answers.
    */
-  public double getCorrespondence(
-      int[][] pixelMatrixA, 
-      int[][] pixelMatrixB,                    
-      Pair<Integer, Integer> aFragmentOrigin, 
-      Pair<Integer, Integer> bFragmentOrigin) {
-    return 1 * getPhotometricCorrespondence(pixelMatrixA, pixelMatrixB) + 0.1 * getDistance(aFragmentOrigin, bFragmentOrigin);
+  public int getBestAnswer(Map<Integer, Double> similarities) {
+    int answer = -1;
+    double maxSimilarity = 0;
+
+    for (Map.Entry<Integer, Double> entry : similarities.entrySet()) {
+      if (answer == -1 || entry.getValue() > maxSimilarity
+          || (entry.getValue() == maxSimilarity && entry.getKey() < answer)) {
+        answer = entry.getKey();
+        maxSimilarity = entry.getValue();
+      }
+    }
+
+    return answer;
   }
 
   /**
-   * This method returns the photometric correspondence between two images.
+   * Returns the only answer whose normalized similarity deviates from the
+   * mean by more than the confidence threshold.
    *
-   * @param pixelMatrixA
-   * @param pixelMatrixB
-   * @return
+   * @param similarities Figure number as key and similarity score as value.
+   * @return The confident answer, or -1 if there is none or more than one.
    */
-  public double getPhotometricCorrespondence(int[][] pixelMatrixA, int[][] pixelMatrixB) {
-    double c = 0;
-
-    for (int x = 0; x < pixelMatrixA.length; x++) {
-      for (int y = 0; y < pixelMatrixA.length; y++) {
-    	  // TODO remove after testing
-//        c += Math.pow(getPhotometric(pixelMatrixB[x][y]) - getPhotometric(pixelMatrixA[x][y]), 2);
-    	  c += Math.pow(pixelMatrixB[x][y] - pixelMatrixA[x][y], 2);
+  public int getConfidentAnswer(Map<Integer, Double> similarities) {
+    // Find the answer with the highest similarity value
+    Double maxSimilarity = null;
+    for (Map.Entry<Integer, Double> entry : similarities.entrySet()) {
+      if (maxSimilarity == null || maxSimilarity < entry.getValue()) {
+        maxSimilarity = entry.getValue();
       }
     }
 
-    return c;
+    // Normalize data for a range of 0.0-1.0
+    for (Map.Entry<Integer, Double> entry : similarities.entrySet()) {
+      entry.setValue(entry.getValue() / maxSimilarity);
+    }
+
+    // Calculate mean
+    double mean = mean(similarities.values());
+    // Calculate standard deviation
+    double standardDeviation = standardDeviation(similarities.values(), mean);
+    // Calculate standard error
+    double standardError = standardError(similarities.size(), standardDeviation);
+    // Calculate getDeviations
+    Map<Integer, Double> deviations = getDeviations(similarities, mean, standardError);
+
+    // Get most confident answer
+    double threshold = getConfidenceThreshold();
+    List<Integer> answers = new ArrayList<>();
+    for (Map.Entry<Integer, Double> deviation : deviations.entrySet()) {
+      if (deviation.getValue() > threshold)
+        answers.add(deviation.getKey());
+    }
+
+    if (answers.size() == 1)
+      return answers.get(0);
+
+    return -1;
   }
 
   /**
-   * This method gets the photometric value for a pixel in the RGB color space.
+   * Returns the scheduler that runs the encodings of this agent, creating it
+   * with the configured parallelism and thread mode on first use.
    *
-   * @param pixel
-   * @return
+   * @return The encoding scheduler of this agent.
    */
-  public double getPhotometric(int pixel) {
-    int red = (pixel >> 16) & 0xFF;
-    int green = (pixel >> 8) & 0xFF;
-    int blue = pixel & 0xFF;
+  public synchronized EncodingScheduler getScheduler() {
+    if (scheduler == null)
+      scheduler = new EncodingScheduler(parallelism, virtualThreads);
 
-    return 0.3 * red + 0.59 * green + 0.11 * blue;
+    return scheduler;
   }
 
   /**
-   * This method implements the distance formula for two ordered pairs.
+   * Returns a set of fractal representations for two images.
    *
-   * @param aFragmentOrigin
-   * @param bFragmentOrigin
-   * @return
+   * @param image1
+   * @param image2
+   * @param abstractionLevel The size of the grid to partition the image with.
+   * @return A set of FractalRepresentation objects.
    */
-  public double getDistance(Pair<Integer, Integer> aFragmentOrigin, Pair<Integer, Integer> bFragmentOrigin) {
-    return Math.sqrt(
-        Math.pow(bFragmentOrigin.getElement0() - aFragmentOrigin.getElement0(), 2)
-            + Math.pow(bFragmentOrigin.getElement1() - aFragmentOrigin.getElement1(), 2)
-    );
+  public Set<FractalRepresentation> getMutualFractals(
+      GrayPlane image1, 
+      GrayPlane image2, 
+      int abstractionLevel) {
+    Set<FractalRepresentation> fractals = new HashSet<>();
+
+    fractals.addAll(getFractals(image1, image2, abstractionLevel));
+    fractals.addAll(getFractals(image2, image1, abstractionLevel));
+
+    return fractals;
   }
 
   /**
-   * This method flips an image horizontally. Credit goes to Byron Kiourtzoglou
-   * for the original code:
-   *
-   * http://examples.javacodegeeks.com/desktop-java/awt/image/flipping-a-buffered-image/
+   * Returns a set of fractal representations for three images.
    *
-   * @param image
-   * @return
+   * @param image1
+   * @param image2
+   * @param image3
+   * @param abstractionLevel The size of the grid to partition the image with.
+   * @return A set of FractalRepresentation objects.
    */
-  public BufferedImage horizontalFlip(BufferedImage image) {
-    BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+  public Set<FractalRepresentation> getMutualFractalsThreeByThree(
+      GrayPlane image1, 
+      GrayPlane image2, 
+      GrayPlane image3,
+      int abstractionLevel) {
+    Set<FractalRepresentation> fractals = new HashSet<>();
 
-    AffineTransform tx = AffineTransform.getScaleInstance(-1, 1);
-    tx.translate(-image.getWidth(null), 0);
-    AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-    op.filter(image, result);
+    fractals.addAll(getMutualFractals(image1, image2, abstractionLevel));
+    fractals.addAll(getMutualFractals(image2, image3, abstractionLevel));
+    fractals.addAll(getMutualFractals(image1, image3, abstractionLevel));
 
-    return result;
+    return fractals;
   }
 
   /**
-   * This method flips an image vertically. Credit goes to Byron Kiourtzoglou
-   * for the original code:
-   *
-   * http://examples.javacodegeeks.com/desktop-java/awt/image/flipping-a-buffered-image/
+   * Returns a set of fractal codes for two images.
    *
-   * @param image
-   * @return
+   * @param source
+   * @param destination
+   * @param abstractionLevel The size of the grid to partition the image with.
+   * @return A set of FractalRepresentation objects.
    */
-  public BufferedImage verticalFlip(BufferedImage image) {
-    BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
-
-    AffineTransform tx = AffineTransform.getScaleInstance(1, -1);
-    tx.translate(0, -image.getHeight(null));
-    AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-    op.filter(image, result);
-
-    return result;
+  public Set<FractalRepresentation> getFractals(GrayPlane source, GrayPlane destination, int abstractionLevel) {
+    return new FractalsCommand(source, destination, abstractionLevel).execute();
   }
 
   /**
-   * This method rotates an image about its center. Theta is a radian value:
-   *
-   * 90 degrees = pi / 2
-   * 180 degrees = pi
-   * 270 degrees = 3 * pi / 2
+   * This method calculates the Tversky ratio for two sets of fractal representations.
    *
-   * @return The result of the transformation
-   * @image The image to rotate
-   * @theta A radian value for the rotation.
+   * @param fractalSet1
+   * @param fractalSet2
+   * @return The Tversky ratio for two sets of fractal representations.
    */
-  public BufferedImage rotateImage(BufferedImage image, double theta) {
-    BufferedImage result = new BufferedImage(image.getHeight(), image.getWidth(), image.getType());
-
-		/* Transformations are stacked then applied so the last transformation is the first to happen */
-    AffineTransform tx = new AffineTransform();
-
-    tx.translate(image.getHeight() / 2, image.getWidth() / 2);
-    tx.rotate(theta);
-    tx.translate(-image.getWidth() / 2, -image.getHeight() / 2);
-
-    AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
-    op.filter(image, result);
+  public double calculateSimilarity(Set<FractalRepresentation> fractalSet1, Set<FractalRepresentation> fractalSet2) {
+    FeatureInterner interner = new FeatureInterner();
 
-    return result;
+    return calculateSimilarity(interner.getFeatures(fractalSet1), interner.getFeatures(fractalSet2));
   }
 
   /**
-   * This method reflects an image over the y-axis and then rotates the
-   * image 270 degrees.
+   * This method calculates the Tversky ratio for the features of two sets of
+   * fractal representations. The features must be numbered by the same
+   * interner.
    *
-   * @param image
-   * @return
+   * @param fractalSet1Features
+   * @param fractalSet2Features
+   * @return The Tversky ratio for two sets of fractal representations.
    */
-  public BufferedImage rotate90Flip(BufferedImage image) {
-    BufferedImage result = null;
-
-    // Rotate 90 degrees
-    result = rotateImage(image, Math.PI / 2);
-    // Reflect image over x axis
-    result = verticalFlip(result);
-
-    return result;
+  public double calculateSimilarity(FeatureSet fractalSet1Features, FeatureSet fractalSet2Features) {
+    return fractalSet1Features.getTverskyRatio(fractalSet2Features, TVERSKY_ALPHA, TVERSKY_BETA);
   }
 
   /**
-   * This method reflects an image over the x-axis and then rotates the
-   * image 270 degrees.
+   * This method compiles the features of a set of fractal representations
+   * into a similarity that many sets can be compared with, giving the same
+   * Tversky ratios as calculateSimilarity with the set as the first set.
    *
-   * @param image
-   * @return
+   * @param fractalSetFeatures
+   * @return The prepared similarity to the set.
    */
-  public BufferedImage rotate270Flip(BufferedImage image) {
-    BufferedImage result = null;
-
-    // Rotate 270 degrees
-    result = rotateImage(image, 3 * Math.PI / 2);
-    // Reflect image over x axis
-    result = verticalFlip(result);
-
-    return result;
+  public PreparedSimilarity prepareSimilarity(FeatureSet fractalSetFeatures) {
+    return new PreparedSimilarity(fractalSetFeatures, TVERSKY_ALPHA, TVERSKY_BETA);
   }
 
   /**
@@ -1097,61 +658,4 @@ public class Agent {
 
     return result;
   }
-
-  /**
-   * Returns a matrix of pixel values, where 255 equals white and 0 equals black.
-   *
-   * Original code by blackSmith:
-   * http://stackoverflow.com/questions/17278829/grayscale-bitmap-into-2d-array
-   */
-  public int[][] getGrayscalePixelMatrix(BufferedImage image) {
-    int width = image.getWidth();
-    int height = image.getHeight();
-    int[][] matrix = new int[width][height];
-
-    Raster raster = image.getData();
-    for (int i = 0; i < width; i++) {
-      for (int j = 0; j < height; j++) {
-        matrix[i][j] = raster.getSample(i, j, 0);
-      }
-    }
-
-    return matrix;
-  }
-  
-  /**
-   * This method splits an image into a matrix of image fragments. Credit goes to
-   * Kalani Ruwanpathrana for the original code:
-   *
-   * http://kalanir.blogspot.com/2010/02/how-to-split-image-into-chunks-java.html
-   *
-   * @param image
-   * @param size
-   * @return
-   */
-  public BufferedImage[][] partitionImage(BufferedImage image, int size) {
-    int rows = size;
-    int columns = size;
-
-    // Determine the fragment width and height
-    int fragmentWidth = image.getWidth() / columns;
-    int fragmentHeight = image.getHeight() / rows;
-
-    BufferedImage[][] images = new BufferedImage[rows][columns];
-    for (int x = 0; x < rows; x++) {
-      for (int y = 0; y < columns; y++) {
-        // Initialize the image fragments in the array
-        images[x][y] = new BufferedImage(fragmentWidth, fragmentHeight, image.getType());
-
-        // Draw the image fragment
-        Graphics2D graphic = images[x][y].createGraphics();
-        graphic.drawImage(image, 0, 0, fragmentWidth, fragmentHeight, fragmentWidth * y, fragmentHeight * x,
-            fragmentWidth * y + fragmentWidth, fragmentHeight * x + fragmentHeight, null
-        );
-        graphic.dispose();
-      }
-    }
-
-    return images;
-  }
-}
\ No newline at end of file
+}
@@ -0,0 +1,192 @@
+package ravensproject;
+
+/**
+ * Finds the best source fragment and transformation for every destination
+ * fragment of a grid at once. The transformed source fragments and the
+ * destination fragments are packed into contiguous arrays, the cross terms of
+ * every source, transformation and destination are computed over the packed
+ * arrays, and the sums of squared differences are assembled from the cross
+ * terms and the squared sums of the summed-area tables. Pairs whose lower
+ * bound cannot reach the best value are skipped without computing the cross
+ * terms.
+ *
+ * The results are the same as an exhaustive search: every remaining pair is
+ * scored exactly and ties go to the pair an exhaustive search visits first.
+ */
+public class BlockCorrelationEngine {
+
+  // How far above the best value a lower bound may lie before its pair is
+  // skipped. The bounds are computed in doubles from exact integer sums, and
+  // packed search candidates drop the low 16 bits of their mantissas, so a
+  // bound is off by at most about 2^-36 of its value. Even the largest sum of
+  // squared differences, 255^2 for each of some 34,000 pixels, is then off
+  // by well under one.
+  public static final double BOUND_MARGIN = 1;
+
+  private BlockCorrelationEngine() {
+  }
+
+  /**
+   * Returns the best match for every destination fragment.
+   *
+   * @param sourceFragments The source fragments of the grid.
+   * @param destinationFragments The destination fragments of the grid.
+   * @param spatialTerms The spatial term of the correspondence value, indexed by
+   *                     the row and column distances between two fragments.
+   * @param deadline Checked before every destination fragment.
+   * @return The best match for each destination fragment, indexed like the grid.
+   */
+  public static FragmentMatch[][] findMatches(
+      GrayPlane[][] sourceFragments,
+      GrayPlane[][] destinationFragments,
+      double[][] spatialTerms,
+      Deadline deadline) {
+    OrthonormalTransformation[] transformations = OrthonormalTransformation.values();
+    int size = sourceFragments.length;
+    int fragments = size * size;
+    int pixels = sourceFragments[0][0].getWidth() * sourceFragments[0][0].getHeight();
+    // Transformed source fragments, ordered by fragment then transformation
+    int[] sources = new int[fragments * transformations.length * pixels];
+    int[] destinations = new int[fragments * pixels];
+    long[] sourceSquareSums = new long[fragments];
+    long[] destinationSquareSums = new long[fragments];
+    // Sums and norms of the centred pixels, which bound the correspondence
+    // value of a pair from below under every transformation
+    double[] sourceSums = new double[fragments];
+    double[] sourceNorms = new double[fragments];
+    double[] destinationSums = new double[fragments];
+    double[] destinationNorms = new double[fragments];
+    FragmentMatch[][] matches = new FragmentMatch[size][size];
+
+    for (int x = 0; x < size; x++) {
+      for (int y = 0; y < size; y++) {
+        int fragment = x * size + y;
+        GrayPlane[] transformedFragments = DihedralTransformEngine.transformAll(sourceFragments[x][y]);
+
+        for (OrthonormalTransformation transformation : transformations) {
+          pack(
+              transformedFragments[transformation.ordinal()],
+              sources,
+              (fragment * transformations.length + transformation.ordinal()) * pixels
+          );
+        }
+        pack(destinationFragments[x][y], destinations, fragment * pixels);
+        sourceSquareSums[fragment] = sourceFragments[x][y].getSquareSum();
+        destinationSquareSums[fragment] = destinationFragments[x][y].getSquareSum();
+        sourceSums[fragment] = sourceFragments[x][y].getSum();
+        destinationSums[fragment] = destinationFragments[x][y].getSum();
+        sourceNorms[fragment] = getCentredNorm(sourceSums[fragment], sourceSquareSums[fragment], pixels);
+        destinationNorms[fragment] = getCentredNorm(destinationSums[fragment], destinationSquareSums[fragment], pixels);
+      }
+    }
+
+    // Iterate through destination image fragments
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        double[] lowerBounds = new double[fragments];
+        int seed = 0;
+
+        deadline.check();
+        for (int x = 0; x < size; x++) {
+          for (int y = 0; y < size; y++) {
+            int fragment = x * size + y;
+            double sumDifference = sourceSums[fragment] - destinationSums[i * size + j];
+            double normDifference = sourceNorms[fragment] - destinationNorms[i * size + j];
+
+            lowerBounds[fragment] = sumDifference * sumDifference / pixels + normDifference * normDifference
+                + spatialTerms[Math.abs(x - i)][Math.abs(y - j)];
+            if (lowerBounds[fragment] < lowerBounds[seed])
+              seed = fragment;
+          }
+        }
+
+        // Score the most promising source fragment first so the bound is tight
+        // from the start, then every source fragment in the order of an
+        // exhaustive search. A pair is only scored when its lower bound can
+        // match the best value.
+        FragmentMatch best = scoreFragment(seed, i, j, size, pixels, sources, destinations, sourceSquareSums,
+            destinationSquareSums, spatialTerms, null);
+        for (int fragment = 0; fragment < fragments; fragment++) {
+          if (fragment != seed && lowerBounds[fragment] <= best.getCorrespondence() + BOUND_MARGIN)
+            best = scoreFragment(fragment, i, j, size, pixels, sources, destinations, sourceSquareSums,
+                destinationSquareSums, spatialTerms, best);
+        }
+
+        matches[i][j] = best;
+      }
+    }
+
+    return matches;
+  }
+
+  /**
+   * Scores every transformation of a source fragment against a destination
+   * fragment and returns the better of the best of them and the best match so
+   * far. Equal values go to the pair an exhaustive search visits first.
+   *
+   * @param fragment The index of the source fragment.
+   * @param i The row of the destination fragment.
+   * @param j The column of the destination fragment.
+   * @param best The best match found so far, or null.
+   * @return The best match found.
+   */
+  private static FragmentMatch scoreFragment(int fragment, int i, int j, int size, int pixels, int[] sources,
+                                             int[] destinations, long[] sourceSquareSums,
+                                             long[] destinationSquareSums, double[][] spatialTerms,
+                                             FragmentMatch best) {
+    OrthonormalTransformation[] transformations = OrthonormalTransformation.values();
+    int destination = i * size + j;
+    double spatialTerm = spatialTerms[Math.abs(fragment / size - i)][Math.abs(fragment % size - j)];
+    long squareSums = sourceSquareSums[fragment] + destinationSquareSums[destination];
+
+    for (int t = 0; t < transformations.length; t++) {
+      long crossTerm = PixelKernels.getCrossTerm(
+          sources,
+          (fragment * transformations.length + t) * pixels,
+          destinations,
+          destination * pixels,
+          pixels
+      );
+      double correspondence = 1 * (double) (squareSums - 2 * crossTerm) + spatialTerm;
+      int rank = fragment * transformations.length + t;
+
+      if (best == null || correspondence < best.getCorrespondence()
+          || (correspondence == best.getCorrespondence() && rank < best.getRank())) {
+        best = new FragmentMatch(new Pair<>(fragment / size, fragment % size), transformations[t], rank, correspondence);
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Returns the norm of the centred pixels of a fragment.
+   *
+   * @param sum The sum of the pixel values.
+   * @param squareSum The sum of the squared pixel values.
+   * @param pixels The number of pixels.
+   * @return The norm of the pixel values minus their mean.
+   */
+  static double getCentredNorm(double sum, long squareSum, int pixels) {
+    return Math.sqrt(Math.max(0, squareSum - sum * sum / pixels));
+  }
+
+  /**
+   * Copies the pixels of a plane row by row into an int array.
+   *
+   * @param plane
+   * @param result
+   * @param offset The index in the result of the first pixel.
+   */
+  static void pack(GrayPlane plane, int[] result, int offset) {
+    byte[] pixels = plane.getPixels();
+
+    for (int y = 0; y < plane.getHeight(); y++) {
+      int row = plane.getOffset() + y * plane.getStride();
+
+      for (int x = 0; x < plane.getWidth(); x++) {
+        result[offset++] = pixels[row + x] & 0xFF;
+      }
+    }
+  }
+}
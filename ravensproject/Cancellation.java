@@ -0,0 +1,59 @@
+package ravensproject;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * A request to stop a batch of encodings, including those already running.
+ * Encodings check their cancellation together with their deadline, between
+ * destination fragments, and give up with a CancellationException once it
+ * has been cancelled, so the workers move on to the encodings still needed.
+ *
+ * Cancellations may be shared by any number of threads.
+ */
+public final class Cancellation {
+
+  // The cancellation that is never cancelled
+  public static final Cancellation NONE = new Cancellation(false);
+
+  private final boolean cancellable;
+  private volatile boolean cancelled;
+
+  /**
+   * Creates a cancellation that has not been cancelled yet.
+   */
+  public Cancellation() {
+    this(true);
+  }
+
+  private Cancellation(boolean cancellable) {
+    this.cancellable = cancellable;
+  }
+
+  /**
+   * Asks the work checking this cancellation to stop. Cancelling more than
+   * once has no further effect.
+   */
+  public void cancel() {
+    if (cancellable)
+      cancelled = true;
+  }
+
+  /**
+   * Returns true once the work has been cancelled.
+   *
+   * @return True if cancelled.
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Gives up the current work once it has been cancelled.
+   *
+   * @throws CancellationException If the work has been cancelled.
+   */
+  public void check() {
+    if (cancelled)
+      throw new CancellationException("The encodings were cancelled");
+  }
+}
@@ -0,0 +1,42 @@
+package ravensproject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Encodes pairs of images at increasing abstraction levels and keeps the
+ * matches of the last level encoded for each pair, so that the next, finer
+ * level of the same pair is seeded with them instead of being searched from
+ * scratch. One encoder is meant to serve the abstraction levels of a single
+ * problem, it may be shared by the threads encoding the problem.
+ */
+public class CoarseToFineEncoder {
+
+  // Source and destination image as key and the matches of the last level
+  // encoded for them as value. Images are compared by identity.
+  private final ConcurrentMap<Pair<GrayPlane, GrayPlane>, FragmentMatch[][]> seedMatches = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the fractal codes of a destination image in the fragments of a
+   * source image, seeded with the matches of the last coarser level encoded
+   * for the same images when its grid divides the grid of this level.
+   *
+   * @param source
+   * @param destination
+   * @param abstractionLevel The size of the grid to partition the images with.
+   * @param deadline The time by which the encoding gives up.
+   * @return The set of packed fractal codes.
+   */
+  public LongHashSet encode(GrayPlane source, GrayPlane destination, int abstractionLevel, Deadline deadline) {
+    Pair<GrayPlane, GrayPlane> images = new Pair<>(source, destination);
+    FractalsCommand command = new FractalsCommand(source, destination, abstractionLevel);
+    LongHashSet codes;
+
+    command.setSeedMatches(seedMatches.get(images));
+    command.setDeadline(deadline);
+    codes = command.executeCodes();
+    seedMatches.put(images, command.getMatches());
+
+    return codes;
+  }
+}
@@ -0,0 +1,83 @@
+package ravensproject;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which the work on a problem has to stop. Encodings check their
+ * deadline between destination fragments and give up with a
+ * CancellationException once it has passed, so the solver can answer with
+ * the abstraction levels it has completed instead of running to the end.
+ *
+ * A deadline may also carry the cancellation of the batch its encodings
+ * belong to, so the encodings give up as well once the batch is cancelled.
+ *
+ * Deadlines are immutable and may be shared by any number of threads.
+ */
+public final class Deadline {
+
+  // The deadline that never passes
+  public static final Deadline NONE = new Deadline(0, false, Cancellation.NONE);
+
+  // The value of System.nanoTime at the deadline
+  private final long time;
+  private final boolean bounded;
+  // Stops the work before the deadline when cancelled
+  private final Cancellation cancellation;
+
+  private Deadline(long time, boolean bounded, Cancellation cancellation) {
+    this.time = time;
+    this.bounded = bounded;
+    this.cancellation = cancellation;
+  }
+
+  /**
+   * Returns the deadline a time budget from now.
+   *
+   * @param budgetMillis The time budget in milliseconds, zero or less for a
+   *                     deadline that never passes.
+   * @return The deadline.
+   */
+  public static Deadline after(long budgetMillis) {
+    if (budgetMillis <= 0)
+      return NONE;
+
+    return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis), true, Cancellation.NONE);
+  }
+
+  /**
+   * Returns this deadline, for work that also gives up once a cancellation
+   * has been cancelled.
+   *
+   * @param cancellation
+   * @return The deadline with the cancellation.
+   */
+  public Deadline withCancellation(Cancellation cancellation) {
+    if (cancellation == this.cancellation)
+      return this;
+
+    return new Deadline(time, bounded, cancellation);
+  }
+
+  /**
+   * Returns true once the deadline has passed.
+   *
+   * @return True if the deadline has passed.
+   */
+  public boolean hasPassed() {
+    return bounded && System.nanoTime() - time >= 0;
+  }
+
+  /**
+   * Gives up the current work once it has been cancelled or the deadline has
+   * passed.
+   *
+   * @throws CancellationException If the work has been cancelled or the
+   *                               deadline has passed.
+   */
+  public void check() {
+    cancellation.check();
+    if (hasPassed())
+      throw new CancellationException("The deadline has passed");
+  }
+}
@@ -0,0 +1,95 @@
+package ravensproject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Applies the orthonormal transformations of the dihedral group D4 to square
+ * pixel planes. Every transformation of a fragment size is a fixed permutation
+ * of pixel indices, so the permutation tables are built once per size and a
+ * transformation becomes a plain array gather.
+ */
+public class DihedralTransformEngine {
+
+  // Fragment size as key and one permutation table per transformation as value
+  private static final ConcurrentMap<Integer, int[][]> PERMUTATIONS = new ConcurrentHashMap<>();
+
+  private DihedralTransformEngine() {
+  }
+
+  /**
+   * Returns the permutation tables for a fragment size, indexed by the
+   * ordinal of the transformation. Entry k of a table is the index of the
+   * source pixel that lands on pixel k of the transformed fragment.
+   *
+   * @param size The width and height of the fragment in pixels.
+   * @return The permutation tables for the fragment size.
+   */
+  public static int[][] getPermutations(int size) {
+    int[][] permutations = PERMUTATIONS.get(size);
+
+    if (permutations == null) {
+      OrthonormalTransformation[] transformations = OrthonormalTransformation.values();
+      permutations = new int[transformations.length][size * size];
+
+      for (OrthonormalTransformation transformation : transformations) {
+        int[] permutation = permutations[transformation.ordinal()];
+        for (int y = 0; y < size; y++) {
+          for (int x = 0; x < size; x++) {
+            permutation[y * size + x] = transformation.getSourceIndex(x, y, size);
+          }
+        }
+      }
+
+      int[][] existing = PERMUTATIONS.putIfAbsent(size, permutations);
+      if (existing != null)
+        permutations = existing;
+    }
+
+    return permutations;
+  }
+
+  /**
+   * Writes the transformation of a square pixel plane into another plane of
+   * the same size.
+   *
+   * @param transformation The transformation to apply.
+   * @param pixels The row-major pixels of the fragment.
+   * @param size The width and height of the fragment in pixels.
+   * @param result The plane receiving the transformed pixels.
+   */
+  public static void transform(OrthonormalTransformation transformation, byte[] pixels, int size, byte[] result) {
+    int[] permutation = getPermutations(size)[transformation.ordinal()];
+
+    for (int k = 0; k < permutation.length; k++) {
+      result[k] = pixels[permutation[k]];
+    }
+  }
+
+  /**
+   * Returns every orthonormal transformation of a square fragment as compact
+   * planes, indexed by the ordinal of the transformation.
+   *
+   * @param fragment The fragment to transform.
+   * @return The transformed fragments.
+   */
+  public static GrayPlane[] transformAll(GrayPlane fragment) {
+    OrthonormalTransformation[] transformations = OrthonormalTransformation.values();
+    GrayPlane[] results = new GrayPlane[transformations.length];
+    int size = fragment.getWidth();
+    byte[] pixels = fragment.toArray();
+
+    for (OrthonormalTransformation transformation : transformations) {
+      byte[] result = pixels;
+
+      if (transformation != OrthonormalTransformation.IDENTITY) {
+        result = new byte[pixels.length];
+        transform(transformation, pixels, size, result);
+      }
+
+      results[transformation.ordinal()] = new GrayPlane(result, 0, size, size, size);
+    }
+
+    return results;
+  }
+}
@@ -0,0 +1,226 @@
+package ravensproject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the encodings of a problem on a shared work-stealing pool. All the
+ * commands of an abstraction level are submitted together and the idle
+ * workers steal the remaining commands, so one slow pair of figures does not
+ * hold up a fixed group of others. Commands that need an encoding another
+ * worker is computing wait for it in the encoding cache.
+ *
+ * In virtual thread mode every command runs on a virtual thread of its own
+ * instead, and a semaphore with one permit per unit of parallelism bounds
+ * the commands that run at once. Thousands of commands, for instance those
+ * of many problems solved together, then cost no platform threads. A command
+ * waiting for an encoding another command is computing keeps its permit.
+ * Virtual threads need Java 21; on older runtimes the scheduler falls back
+ * to the work-stealing pool, which isVirtual tells.
+ *
+ * The commands may also be submitted as a batch, which is waited for later
+ * or cancelled, so that the encodings of several abstraction levels can be
+ * under way at once. Cancelling a batch cancels its Cancellation, which the
+ * running encodings of the batch check between destination fragments.
+ *
+ * The workers are daemon threads, so an unused scheduler does not keep the
+ * program alive.
+ */
+public class EncodingScheduler {
+
+  private final int parallelism;
+  // The work-stealing pool, or null in virtual thread mode
+  private final ForkJoinPool pool;
+  // Starts a virtual thread per command, or null
+  private final ExecutorService virtualExecutor;
+  // Bounds the commands running on virtual threads at once
+  private final Semaphore permits;
+
+  /**
+   * Creates a scheduler with one worker per available processor.
+   */
+  public EncodingScheduler() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a scheduler with a number of workers.
+   *
+   * @param parallelism The number of workers, at least one.
+   */
+  public EncodingScheduler(int parallelism) {
+    this(parallelism, false);
+  }
+
+  /**
+   * Creates a scheduler that runs a number of commands at once, on workers
+   * or on virtual threads.
+   *
+   * @param parallelism The number of commands to run at once, at least one.
+   * @param virtualThreads Whether to run every command on a virtual thread.
+   */
+  public EncodingScheduler(int parallelism, boolean virtualThreads) {
+    ExecutorService executor = virtualThreads ? createVirtualExecutor() : null;
+
+    this.parallelism = parallelism;
+    this.virtualExecutor = executor;
+    this.pool = executor == null ? new ForkJoinPool(parallelism) : null;
+    this.permits = executor == null ? null : new Semaphore(parallelism);
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Returns true when the commands run on virtual threads.
+   *
+   * @return True in virtual thread mode.
+   */
+  public boolean isVirtual() {
+    return virtualExecutor != null;
+  }
+
+  /**
+   * Starts running every command and returns at once. The returned batch
+   * waits for the commands, or cancels the cancellation the commands check
+   * and skips those that have not started yet.
+   *
+   * @param commands
+   * @param cancellation The cancellation the commands give up on.
+   * @return The batch of the commands.
+   */
+  public Batch submitAll(Collection<? extends Runnable> commands, Cancellation cancellation) {
+    final Batch batch = new Batch(cancellation);
+
+    if (virtualExecutor != null) {
+      for (final Runnable command : commands) {
+        batch.futures.add(virtualExecutor.submit(() -> {
+          permits.acquireUninterruptibly();
+          try {
+            batch.runUnlessCancelled(command);
+          }
+          finally {
+            permits.release();
+          }
+        }));
+      }
+
+      return batch;
+    }
+
+    final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+    for (final Runnable command : commands) {
+      tasks.add(ForkJoinTask.adapt(() -> batch.runUnlessCancelled(command)));
+    }
+
+    batch.futures.add(pool.submit(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    }));
+
+    return batch;
+  }
+
+  /**
+   * Stops the workers once the commands already submitted have finished.
+   */
+  public void shutdown() {
+    if (virtualExecutor != null)
+      virtualExecutor.shutdown();
+    else
+      pool.shutdown();
+  }
+
+  /**
+   * Returns an executor that starts a virtual thread per task. The executor
+   * is looked up reflectively, so the scheduler still builds and runs on
+   * runtimes without virtual threads.
+   *
+   * @return The executor, or null when the runtime has no virtual threads.
+   */
+  static ExecutorService createVirtualExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The commands submitted together to a scheduler. Cancelling a batch is
+   * cooperative: the commands that have not started are skipped, and those
+   * already running give up the next time they check the cancellation of the
+   * batch.
+   */
+  public static final class Batch {
+
+    // The tasks running the commands, on a worker or on virtual threads
+    private final List<Future<?>> futures = new ArrayList<>();
+    private final Cancellation cancellation;
+
+    private Batch(Cancellation cancellation) {
+      this.cancellation = cancellation;
+    }
+
+    /**
+     * Waits for every command of the batch to finish or be skipped. An
+     * exception thrown by a command is rethrown, and the commands that have
+     * not started by then are cancelled.
+     */
+    public void await() {
+      try {
+        for (Future<?> future : futures) {
+          if (future instanceof ForkJoinTask)
+            ((ForkJoinTask<?>) future).join();
+          else
+            future.get();
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for the encodings", e);
+      }
+      catch (ExecutionException e) {
+        cancel();
+        for (Future<?> future : futures) {
+          future.cancel(true);
+        }
+        if (e.getCause() instanceof RuntimeException)
+          throw (RuntimeException) e.getCause();
+
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    /**
+     * Skips the commands of the batch that have not started yet and stops
+     * those that check the cancellation of the batch.
+     */
+    public void cancel() {
+      cancellation.cancel();
+    }
+
+    public boolean isCancelled() {
+      return cancellation.isCancelled();
+    }
+
+    private void runUnlessCancelled(Runnable command) {
+      if (!cancellation.isCancelled())
+        command.run();
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package ravensproject;
+
+import java.util.Collection;
+
+/**
+ * Numbers the features of fractal codes densely in the order they are first
+ * seen, so that sets of features can be held as bitsets. A fractal code has
+ * five features: the origin of its source fragment, the origin of its
+ * destination fragment, its transformation, its region size and its
+ * colorimetric contraction. Two codes share a feature when the field is
+ * equal, whatever the other fields hold.
+ *
+ * One interner is meant to serve a single problem, whose feature sets are
+ * compared with one another. This class is not thread safe.
+ */
+public class FeatureInterner {
+
+  // The kinds of features, stored above the value of a feature key
+  private static final int SOURCE_ORIGIN = 1;
+  private static final int DESTINATION_ORIGIN = 2;
+  private static final int TRANSFORMATION = 3;
+  private static final int REGION_SIZE = 4;
+  private static final int CONTRACTION = 5;
+
+  private static final int DEFAULT_CAPACITY = 64;
+  // Feature keys are never zero, so zero marks an empty slot
+  private static final long EMPTY = 0;
+
+  private long[] keys;
+  private int[] ids;
+  private int size;
+
+  public FeatureInterner() {
+    this.keys = new long[DEFAULT_CAPACITY];
+    this.ids = new int[DEFAULT_CAPACITY];
+  }
+
+  /**
+   * Returns the number of features numbered so far.
+   *
+   * @return The number of distinct features seen.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the features of a set of packed fractal codes.
+   *
+   * @param codes
+   * @return A new set holding the features of every code.
+   */
+  public FeatureSet getFeatures(LongHashSet codes) {
+    FeatureSet features = new FeatureSet();
+
+    for (long code : codes.toArray()) {
+      addFeatures(code, features);
+    }
+
+    return features;
+  }
+
+  /**
+   * Returns the features of a set of fractal representations.
+   *
+   * @param fractals
+   * @return A new set holding the features of every representation.
+   */
+  public FeatureSet getFeatures(Collection<FractalRepresentation> fractals) {
+    FeatureSet features = new FeatureSet();
+
+    for (FractalRepresentation fractal : fractals) {
+      addFeatures(FractalCode.encode(fractal), features);
+    }
+
+    return features;
+  }
+
+  /**
+   * Adds the five features of a packed fractal code to a set.
+   *
+   * @param code
+   * @param features
+   */
+  public void addFeatures(long code, FeatureSet features) {
+    features.add(getId(SOURCE_ORIGIN,
+        FractalCode.getSourceRow(code) << 8 | FractalCode.getSourceColumn(code)));
+    features.add(getId(DESTINATION_ORIGIN,
+        FractalCode.getDestinationRow(code) << 8 | FractalCode.getDestinationColumn(code)));
+    features.add(getId(TRANSFORMATION, FractalCode.getTransformation(code).ordinal()));
+    features.add(getId(REGION_SIZE, FractalCode.getRegionSize(code)));
+    // The contraction is stored in quarters, so this is exact
+    features.add(getId(CONTRACTION, (int) Math.round(FractalCode.getColorimetricContraction(code) * 4)));
+  }
+
+  /**
+   * Returns the ID of a feature, numbering it if it has not been seen.
+   *
+   * @param kind The kind of the feature.
+   * @param value The value of the feature.
+   * @return The ID of the feature.
+   */
+  private int getId(int kind, int value) {
+    long key = (long) kind << 32 | (value & 0xFFFFFFFFL);
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key)
+        return ids[slot];
+
+      slot = (slot + 1) & mask;
+    }
+
+    keys[slot] = key;
+    ids[slot] = size;
+    // Keep the table at most half full
+    if (++size * 2 > keys.length)
+      resize(keys.length * 2);
+
+    return size - 1;
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldIds = ids;
+    int mask = capacity - 1;
+
+    keys = new long[capacity];
+    ids = new int[capacity];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int slot = hash(oldKeys[i]) & mask;
+
+        while (keys[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        ids[slot] = oldIds[i];
+      }
+    }
+  }
+
+  /**
+   * Spreads the bits of a key over the low bits used to pick a slot, the
+   * finalizer of MurmurHash3.
+   *
+   * @param key
+   * @return The hash of the key.
+   */
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+
+    return (int) key;
+  }
+}
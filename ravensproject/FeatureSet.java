@@ -0,0 +1,136 @@
+package ravensproject;
+
+import java.util.Arrays;
+
+/**
+ * A set of fractal features stored as a bitset over the dense feature IDs of
+ * a FeatureInterner. The sizes of intersections and differences are counted
+ * word by word from the bits, without building any intermediate set.
+ *
+ * Feature sets are only comparable when their IDs come from the same
+ * interner. This class is not thread safe.
+ */
+public class FeatureSet {
+
+  private long[] words;
+
+  public FeatureSet() {
+    this.words = new long[1];
+  }
+
+  /**
+   * Creates a set holding the features of another set.
+   *
+   * @param other
+   */
+  public FeatureSet(FeatureSet other) {
+    this.words = other.words.clone();
+  }
+
+  /**
+   * Adds a feature to this set.
+   *
+   * @param id The ID of the feature.
+   */
+  public void add(int id) {
+    int word = id >>> 6;
+
+    if (word >= words.length)
+      words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+
+    words[word] |= 1L << id;
+  }
+
+  /**
+   * Adds every feature of another set to this set.
+   *
+   * @param other
+   */
+  public void addAll(FeatureSet other) {
+    if (other.words.length > words.length)
+      words = Arrays.copyOf(words, other.words.length);
+
+    for (int i = 0; i < other.words.length; i++) {
+      words[i] |= other.words[i];
+    }
+  }
+
+  /**
+   * Returns true when this set holds a feature.
+   *
+   * @param id The ID of the feature.
+   * @return True if the set holds the feature.
+   */
+  public boolean contains(int id) {
+    int word = id >>> 6;
+
+    return word < words.length && (words[word] & (1L << id)) != 0;
+  }
+
+  /**
+   * Returns the number of features in this set.
+   *
+   * @return The number of features.
+   */
+  public int size() {
+    int result = 0;
+
+    for (long word : words) {
+      result += Long.bitCount(word);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the number of features this set shares with another set.
+   *
+   * @param other
+   * @return The size of the intersection of the sets.
+   */
+  public int getIntersectionSize(FeatureSet other) {
+    int length = Math.min(words.length, other.words.length);
+    int result = 0;
+
+    for (int i = 0; i < length; i++) {
+      result += Long.bitCount(words[i] & other.words[i]);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the number of features of this set that another set lacks.
+   *
+   * @param other
+   * @return The size of this set minus the other set.
+   */
+  public int getDifferenceSize(FeatureSet other) {
+    int length = Math.min(words.length, other.words.length);
+    int result = 0;
+
+    for (int i = 0; i < length; i++) {
+      result += Long.bitCount(words[i] & ~other.words[i]);
+    }
+    for (int i = length; i < words.length; i++) {
+      result += Long.bitCount(words[i]);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the Tversky ratio of this set to another set,
+   * |X & Y| / (|X & Y| + alpha * |X - Y| + beta * |Y - X|).
+   *
+   * @param other
+   * @param alpha The weight of the features only this set has.
+   * @param beta The weight of the features only the other set has.
+   * @return The Tversky ratio of the sets.
+   */
+  public double getTverskyRatio(FeatureSet other, double alpha, double beta) {
+    int common = getIntersectionSize(other);
+
+    return common / (common + alpha * getDifferenceSize(other) + beta * other.getDifferenceSize(this));
+  }
+}
@@ -0,0 +1,165 @@
+package ravensproject;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Packs the fractal code of a fragment into a single long, the compact form of
+ * a FractalRepresentation. From the most significant bit down a code holds
+ *
+ * - 1 unused bit, so codes are never negative
+ * - 8 bits each for the row and column of the source fragment
+ * - 8 bits each for the row and column of the destination fragment
+ * - 3 bits for the ordinal of the orthonormal transformation
+ * - 12 bits for the region size in pixels
+ * - 16 bits for the colorimetric contraction in quarters, two's complement
+ *
+ * The contraction is always a multiple of 0.75, so storing it in quarters is
+ * exact and a code converts back to a FractalRepresentation equal to the one
+ * it was made from. Equal codes stand for equal representations, so sets of
+ * codes behave like sets of representations.
+ */
+public class FractalCode {
+
+  private static final OrthonormalTransformation[] TRANSFORMATIONS = OrthonormalTransformation.values();
+
+  private static final int CONTRACTION_BITS = 16;
+  private static final int REGION_SIZE_BITS = 12;
+  private static final int TRANSFORMATION_BITS = 3;
+  private static final int COORDINATE_BITS = 8;
+
+  private static final int REGION_SIZE_SHIFT = CONTRACTION_BITS;
+  private static final int TRANSFORMATION_SHIFT = REGION_SIZE_SHIFT + REGION_SIZE_BITS;
+  private static final int DESTINATION_COLUMN_SHIFT = TRANSFORMATION_SHIFT + TRANSFORMATION_BITS;
+  private static final int DESTINATION_ROW_SHIFT = DESTINATION_COLUMN_SHIFT + COORDINATE_BITS;
+  private static final int SOURCE_COLUMN_SHIFT = DESTINATION_ROW_SHIFT + COORDINATE_BITS;
+  private static final int SOURCE_ROW_SHIFT = SOURCE_COLUMN_SHIFT + COORDINATE_BITS;
+
+  // The number of steps per unit of the stored contraction
+  private static final int CONTRACTION_SCALE = 4;
+
+  private FractalCode() {
+  }
+
+  /**
+   * Returns the code of a fragment.
+   *
+   * @param sourceRow
+   * @param sourceColumn
+   * @param destinationRow
+   * @param destinationColumn
+   * @param transformation
+   * @param regionSize The width and height of the region in pixels.
+   * @param colorimetricContraction
+   * @return The packed code.
+   * @throws IllegalArgumentException If a value does not fit its field.
+   */
+  public static long encode(int sourceRow, int sourceColumn, int destinationRow, int destinationColumn,
+                            OrthonormalTransformation transformation, int regionSize, double colorimetricContraction) {
+    long contraction = Math.round(colorimetricContraction * CONTRACTION_SCALE);
+
+    return field(sourceRow, COORDINATE_BITS, "source row") << SOURCE_ROW_SHIFT
+        | field(sourceColumn, COORDINATE_BITS, "source column") << SOURCE_COLUMN_SHIFT
+        | field(destinationRow, COORDINATE_BITS, "destination row") << DESTINATION_ROW_SHIFT
+        | field(destinationColumn, COORDINATE_BITS, "destination column") << DESTINATION_COLUMN_SHIFT
+        | (long) transformation.ordinal() << TRANSFORMATION_SHIFT
+        | field(regionSize, REGION_SIZE_BITS, "region size") << REGION_SIZE_SHIFT
+        | field(contraction + (1 << (CONTRACTION_BITS - 1)), CONTRACTION_BITS, "contraction");
+  }
+
+  /**
+   * Returns the code of a fractal representation.
+   *
+   * @param fractal
+   * @return The packed code.
+   * @throws IllegalArgumentException If a value does not fit its field.
+   */
+  public static long encode(FractalRepresentation fractal) {
+    return encode(
+        fractal.getSourceFragmentOrigin().getElement0(),
+        fractal.getSourceFragmentOrigin().getElement1(),
+        fractal.getDestinationFragmentOrigin().getElement0(),
+        fractal.getDestinationFragmentOrigin().getElement1(),
+        fractal.getOrthonormalTransformation(),
+        fractal.getRegionSize(),
+        fractal.getColorimetricContraction()
+    );
+  }
+
+  /**
+   * Returns the fractal representation of a code.
+   *
+   * @param code
+   * @return A new FractalRepresentation equal to the one the code was made from.
+   */
+  public static FractalRepresentation decode(long code) {
+    return new FractalRepresentation(
+        new Pair<>(getSourceRow(code), getSourceColumn(code)),
+        new Pair<>(getDestinationRow(code), getDestinationColumn(code)),
+        getTransformation(code),
+        getRegionSize(code),
+        getColorimetricContraction(code)
+    );
+  }
+
+  /**
+   * Returns the fractal representations of a set of codes.
+   *
+   * @param codes
+   * @return A new set holding the representation of every code.
+   */
+  public static Set<FractalRepresentation> decodeAll(LongHashSet codes) {
+    Set<FractalRepresentation> fractals = new HashSet<>();
+
+    for (long code : codes.toArray()) {
+      fractals.add(decode(code));
+    }
+
+    return fractals;
+  }
+
+  public static int getSourceRow(long code) {
+    return (int) (code >>> SOURCE_ROW_SHIFT) & ((1 << COORDINATE_BITS) - 1);
+  }
+
+  public static int getSourceColumn(long code) {
+    return (int) (code >>> SOURCE_COLUMN_SHIFT) & ((1 << COORDINATE_BITS) - 1);
+  }
+
+  public static int getDestinationRow(long code) {
+    return (int) (code >>> DESTINATION_ROW_SHIFT) & ((1 << COORDINATE_BITS) - 1);
+  }
+
+  public static int getDestinationColumn(long code) {
+    return (int) (code >>> DESTINATION_COLUMN_SHIFT) & ((1 << COORDINATE_BITS) - 1);
+  }
+
+  public static OrthonormalTransformation getTransformation(long code) {
+    return TRANSFORMATIONS[(int) (code >>> TRANSFORMATION_SHIFT) & ((1 << TRANSFORMATION_BITS) - 1)];
+  }
+
+  public static int getRegionSize(long code) {
+    return (int) (code >>> REGION_SIZE_SHIFT) & ((1 << REGION_SIZE_BITS) - 1);
+  }
+
+  public static double getColorimetricContraction(long code) {
+    int contraction = ((int) code & ((1 << CONTRACTION_BITS) - 1)) - (1 << (CONTRACTION_BITS - 1));
+
+    return contraction / (double) CONTRACTION_SCALE;
+  }
+
+  /**
+   * Checks that a value fits an unsigned field and widens it.
+   *
+   * @param value
+   * @param bits The width of the field.
+   * @param name The name of the field, for the error message.
+   * @return The value as a long.
+   */
+  private static long field(long value, int bits, String name) {
+    if (value < 0 || value >= 1L << bits)
+      throw new IllegalArgumentException("The " + name + " " + value + " does not fit in " + bits + " bits");
+
+    return value;
+  }
+}
@@ -0,0 +1,357 @@
+package ravensproject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps fractal codes on disk across runs. An encoding is addressed by the
+ * content hashes of its source and destination images, the abstraction level,
+ * whether the search was exact and the encoder version, so the same pair of
+ * figures is found again whichever problem, run, file name or exact search
+ * mode it comes from, and encodings made by an inexact search or by an older
+ * encoder are never returned.
+ *
+ * The store is a directory holding two files. The data file holds the codes
+ * of every encoding as big-endian longs, one encoding after another. The
+ * index file holds a header and one fixed-size entry per encoding
+ *
+ * - 8 bytes each for the source and destination content hashes
+ * - 4 bytes each for the abstraction level, the exactness of the search (1
+ *   for exact, 0 otherwise) and the encoder version
+ * - 8 bytes for the position of the codes in the data file
+ * - 4 bytes for the number of codes
+ * - 4 bytes of check value over the other fields
+ *
+ * The index is memory-mapped when the store is opened. Lookups only hold the
+ * store's monitor to find an entry and read the codes outside it, so
+ * concurrent encoders do not wait on one another's disk reads. Both files are only
+ * appended to, under a file lock, and an entry is written after its codes,
+ * so an interrupted write leaves at worst an entry that fails its check and
+ * is ignored.
+ *
+ * The store is off unless the system property ravensproject.codeStore names
+ * its directory.
+ */
+public class FractalCodeStore {
+
+  public static final String STORE_PROPERTY = "ravensproject.codeStore";
+
+  private static final String INDEX_FILE = "codes.idx";
+  private static final String DATA_FILE = "codes.dat";
+  // Identifies an index file and the layout of its entries
+  private static final long INDEX_MAGIC = 0x5250464349445832L;
+  private static final int HEADER_SIZE = 8;
+  private static final int ENTRY_SIZE = 44;
+
+  private static FractalCodeStore defaultStore;
+  private static boolean defaultStoreOpened;
+
+  private final FileChannel index;
+  private final FileChannel data;
+  // Key of an encoding as key and its position and number of codes in the
+  // data file as value
+  private final Map<StoreKey, long[]> entries = new HashMap<>();
+  // The length of the index file read so far
+  private long indexLength;
+
+  /**
+   * Opens the store in a directory, creating the directory and its files
+   * when they do not exist.
+   *
+   * @param directory
+   * @throws IOException If the files cannot be opened or are not a store.
+   */
+  public FractalCodeStore(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException("Cannot create fractal code store " + directory);
+
+    index = new RandomAccessFile(new File(directory, INDEX_FILE), "rw").getChannel();
+    data = new RandomAccessFile(new File(directory, DATA_FILE), "rw").getChannel();
+
+    FileLock lock = index.lock();
+
+    try {
+      if (index.size() == 0) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        header.putLong(0, INDEX_MAGIC);
+        index.write(header, 0);
+      }
+
+      readIndex();
+    }
+    finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * Returns the store named by the store system property, opening it on the
+   * first call. A store that cannot be opened is reported once and left off.
+   *
+   * @return The store, or null when there is none.
+   */
+  public static synchronized FractalCodeStore getDefault() {
+    if (!defaultStoreOpened) {
+      String directory = System.getProperty(STORE_PROPERTY);
+
+      defaultStoreOpened = true;
+      if (directory != null && !directory.isEmpty()) {
+        try {
+          defaultStore = new FractalCodeStore(new File(directory));
+        }
+        catch (IOException e) {
+          System.out.println("Fractal code store disabled: " + e.getMessage());
+        }
+      }
+    }
+
+    return defaultStore;
+  }
+
+  /**
+   * Returns the number of encodings in the store.
+   *
+   * @return The number of encodings.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the stored fractal codes of a destination image in the fragments
+   * of a source image.
+   *
+   * @param source
+   * @param destination
+   * @param abstractionLevel
+   * @param exact Whether the encoding is found by an exact search.
+   * @param encoderVersion
+   * @return The packed fractal codes in ascending order, or null when the
+   *         encoding is not stored.
+   */
+  public long[] get(GrayPlane source, GrayPlane destination, int abstractionLevel, boolean exact,
+                    int encoderVersion) {
+    StoreKey key = new StoreKey(source, destination, abstractionLevel, exact, encoderVersion);
+    long[] entry;
+
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry == null)
+      return null;
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) entry[1] * 8);
+    long[] codes = new long[(int) entry[1]];
+
+    // Positional reads of the appended codes do not need the monitor
+    try {
+      while (buffer.hasRemaining()) {
+        if (data.read(buffer, entry[0] + buffer.position()) < 0)
+          return null;
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    buffer.flip();
+    buffer.asLongBuffer().get(codes);
+
+    return codes;
+  }
+
+  /**
+   * Stores the fractal codes of a destination image in the fragments of a
+   * source image. Codes already stored for the same key are kept.
+   *
+   * @param source
+   * @param destination
+   * @param abstractionLevel
+   * @param exact Whether the encoding is found by an exact search.
+   * @param encoderVersion
+   * @param codes The packed fractal codes.
+   */
+  public synchronized void put(GrayPlane source, GrayPlane destination, int abstractionLevel, boolean exact,
+                               int encoderVersion, long[] codes) {
+    StoreKey key = new StoreKey(source, destination, abstractionLevel, exact, encoderVersion);
+
+    if (entries.containsKey(key))
+      return;
+
+    try {
+      append(key, codes);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Appends the codes of an encoding and its index entry under the file
+   * lock, unless another process has stored the encoding in the meantime.
+   *
+   * @param key
+   * @param codes
+   * @throws IOException If the files cannot be written.
+   */
+  private void append(StoreKey key, long[] codes) throws IOException {
+    FileLock lock = index.lock();
+
+    try {
+      // Another process may have appended since the index was read
+      readIndex();
+      if (entries.containsKey(key))
+        return;
+
+      long position = data.size();
+      ByteBuffer buffer = ByteBuffer.allocate(codes.length * 8);
+
+      buffer.asLongBuffer().put(codes);
+      while (buffer.hasRemaining()) {
+        data.write(buffer, position + buffer.position());
+      }
+
+      ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+      long indexSize = index.size();
+      // Entries start at whole multiples of the entry size, past any torn entry
+      long entryPosition = HEADER_SIZE + (indexSize - HEADER_SIZE + ENTRY_SIZE - 1) / ENTRY_SIZE * ENTRY_SIZE;
+
+      entry.putLong(key.sourceHash)
+          .putLong(key.destinationHash)
+          .putInt(key.abstractionLevel)
+          .putInt(key.exact ? 1 : 0)
+          .putInt(key.encoderVersion)
+          .putLong(position)
+          .putInt(codes.length)
+          .putInt(key.getCheck(position, codes.length));
+      entry.flip();
+      while (entry.hasRemaining()) {
+        index.write(entry, entryPosition + entry.position());
+      }
+
+      entries.put(key, new long[] {position, codes.length});
+    }
+    finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * Reads the complete entries appended to the index file since it was last
+   * read through a memory mapping. Entries that fail their check are skipped.
+   *
+   * @throws IOException If the index cannot be read or is not an index.
+   */
+  private void readIndex() throws IOException {
+    long size = index.size();
+
+    if (indexLength == 0) {
+      if (size < HEADER_SIZE || index.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).getLong(0) != INDEX_MAGIC)
+        throw new IOException("Not a fractal code index");
+
+      indexLength = HEADER_SIZE;
+    }
+
+    int count = (int) ((size - indexLength) / ENTRY_SIZE);
+    if (count <= 0)
+      return;
+
+    MappedByteBuffer buffer = index.map(FileChannel.MapMode.READ_ONLY, indexLength, (long) count * ENTRY_SIZE);
+
+    for (int position = 0; position < count * ENTRY_SIZE; position += ENTRY_SIZE) {
+      StoreKey key = new StoreKey(
+          buffer.getLong(position),
+          buffer.getLong(position + 8),
+          buffer.getInt(position + 16),
+          buffer.getInt(position + 20) == 1,
+          buffer.getInt(position + 24)
+      );
+      long codesPosition = buffer.getLong(position + 28);
+      int codes = buffer.getInt(position + 36);
+
+      if (codes >= 0 && buffer.getInt(position + 40) == key.getCheck(codesPosition, codes))
+        entries.put(key, new long[] {codesPosition, codes});
+    }
+    indexLength += (long) count * ENTRY_SIZE;
+  }
+
+  /**
+   * The content address of an encoding.
+   */
+  private static final class StoreKey {
+
+    private final long sourceHash;
+    private final long destinationHash;
+    private final int abstractionLevel;
+    // Whether the encoding is found by an exact search
+    private final boolean exact;
+    private final int encoderVersion;
+
+    private StoreKey(GrayPlane source, GrayPlane destination, int abstractionLevel, boolean exact,
+                     int encoderVersion) {
+      this(source.getContentHash(), destination.getContentHash(), abstractionLevel, exact, encoderVersion);
+    }
+
+    private StoreKey(long sourceHash, long destinationHash, int abstractionLevel, boolean exact,
+                     int encoderVersion) {
+      this.sourceHash = sourceHash;
+      this.destinationHash = destinationHash;
+      this.abstractionLevel = abstractionLevel;
+      this.exact = exact;
+      this.encoderVersion = encoderVersion;
+    }
+
+    /**
+     * Returns the check value of an index entry for this key.
+     *
+     * @param position The position of the codes in the data file.
+     * @param count The number of codes.
+     * @return The check value.
+     */
+    private int getCheck(long position, int count) {
+      long result = hashCode();
+
+      result = result * 31 + position;
+      result = result * 31 + count;
+
+      return (int) (result ^ (result >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof StoreKey))
+        return false;
+
+      StoreKey other = (StoreKey) o;
+
+      return sourceHash == other.sourceHash
+          && destinationHash == other.destinationHash
+          && abstractionLevel == other.abstractionLevel
+          && exact == other.exact
+          && encoderVersion == other.encoderVersion;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = Long.hashCode(sourceHash);
+
+      result = 31 * result + Long.hashCode(destinationHash);
+      result = 31 * result + abstractionLevel;
+      result = 31 * result + (exact ? 1 : 0);
+      result = 31 * result + encoderVersion;
+
+      return result;
+    }
+  }
+}
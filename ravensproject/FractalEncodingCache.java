@@ -0,0 +1,160 @@
+package ravensproject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Remembers the fractal codes of the figures of a single problem, so that
+ * every directed pair of figures is encoded at most once per abstraction
+ * level however many relationships share it. Both directions of a pair are
+ * encoded together by MutualFractalsCommand.encodeMutual, which shares the
+ * work between them. A request for an encoding that another thread is
+ * computing waits for that computation instead of repeating it.
+ *
+ * The features of every encoding are numbered by one interner per problem
+ * and kept as well, so relationships that share an encoding share its
+ * features too.
+ *
+ * The returned code and feature sets are shared between callers and must
+ * not be modified.
+ */
+public class FractalEncodingCache {
+
+  // The figures of the problem, by figure name
+  private final Map<String, GrayPlane> images;
+  // Whether to encode on a quadtree with the abstraction level as its finest grid
+  private final boolean adaptive;
+  // Seeds each level with the matches of the previous level, or null
+  private final CoarseToFineEncoder encoder;
+  // The time by which the encodings of the problem give up
+  private final Deadline deadline;
+  // Figure names in ascending order and abstraction level as key and the
+  // encodings of both directions, finished or in flight, as value. The first
+  // encoding has the first figure as its source.
+  private final ConcurrentMap<Pair<Pair<String, String>, Integer>, FutureTask<LongHashSet[]>> encodings =
+      new ConcurrentHashMap<>();
+  // Numbers the features of every encoding of the problem, guarded by itself
+  private final FeatureInterner interner = new FeatureInterner();
+  // Source and destination figure name and abstraction level as key and the
+  // features of the encoding as value
+  private final ConcurrentMap<Pair<Pair<String, String>, Integer>, FeatureSet> features =
+      new ConcurrentHashMap<>();
+
+  public FractalEncodingCache(Map<String, GrayPlane> images, boolean adaptive, CoarseToFineEncoder encoder) {
+    this(images, adaptive, encoder, Deadline.NONE);
+  }
+
+  /**
+   * Creates a cache whose encodings give up once the problem's deadline has
+   * passed. An encoding that gave up throws a CancellationException to every
+   * request for it.
+   *
+   * @param images The figures of the problem, by figure name.
+   * @param adaptive Whether to encode on a quadtree with the abstraction
+   *                 level as its finest grid.
+   * @param encoder Seeds each level with the matches of the previous level,
+   *                or null.
+   * @param deadline The time by which the encodings give up.
+   */
+  public FractalEncodingCache(Map<String, GrayPlane> images, boolean adaptive, CoarseToFineEncoder encoder,
+                              Deadline deadline) {
+    this.images = images;
+    this.adaptive = adaptive;
+    this.encoder = encoder;
+    this.deadline = deadline;
+  }
+
+  public GrayPlane getImage(String name) {
+    return images.get(name);
+  }
+
+  /**
+   * Returns the fractal codes of a destination figure in the fragments of a
+   * source figure, encoding them on the first request.
+   *
+   * @param source The name of the source figure.
+   * @param destination The name of the destination figure.
+   * @param abstractionLevel The size of the grid to partition the figures with.
+   * @return The shared set of packed fractal codes.
+   */
+  public LongHashSet getCodes(String source, String destination, int abstractionLevel) {
+    return getCodes(source, destination, abstractionLevel, Cancellation.NONE);
+  }
+
+  /**
+   * Returns the fractal codes of a destination figure in the fragments of a
+   * source figure, encoding them on the first request. An encoding started by
+   * this request gives up once the cancellation has been cancelled, and then
+   * throws a CancellationException to every request for it.
+   *
+   * @param source The name of the source figure.
+   * @param destination The name of the destination figure.
+   * @param abstractionLevel The size of the grid to partition the figures with.
+   * @param cancellation The cancellation of the batch the request belongs to.
+   * @return The shared set of packed fractal codes.
+   */
+  public LongHashSet getCodes(final String source, final String destination, final int abstractionLevel,
+                              final Cancellation cancellation) {
+    final boolean forward = source.compareTo(destination) <= 0;
+    final String first = forward ? source : destination;
+    final String second = forward ? destination : source;
+    Pair<Pair<String, String>, Integer> key = new Pair<>(new Pair<>(first, second), abstractionLevel);
+    FutureTask<LongHashSet[]> encoding = encodings.get(key);
+
+    if (encoding == null) {
+      FutureTask<LongHashSet[]> task = new FutureTask<>(() -> MutualFractalsCommand.encodeMutual(
+          images.get(first), images.get(second), abstractionLevel, adaptive, encoder,
+          deadline.withCancellation(cancellation)));
+
+      encoding = encodings.putIfAbsent(key, task);
+      if (encoding == null) {
+        encoding = task;
+        task.run();
+      }
+    }
+
+    try {
+      return encoding.get()[forward ? 0 : 1];
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for " + source + " -> " + destination, e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Returns the features of the fractal codes of a destination figure in the
+   * fragments of a source figure, featurizing them on the first request.
+   *
+   * @param source The name of the source figure.
+   * @param destination The name of the destination figure.
+   * @param abstractionLevel The size of the grid to partition the figures with.
+   * @return The shared set of features.
+   */
+  public FeatureSet getFeatures(String source, String destination, int abstractionLevel) {
+    Pair<Pair<String, String>, Integer> key = new Pair<>(new Pair<>(source, destination), abstractionLevel);
+    FeatureSet result = features.get(key);
+
+    if (result != null)
+      return result;
+
+    // Wait for the encoding without holding any lock, a miss may run a whole
+    // encoding while other threads featurize other pairs
+    final LongHashSet codes = getCodes(source, destination, abstractionLevel);
+
+    return features.computeIfAbsent(key, k -> {
+      synchronized (interner) {
+        return interner.getFeatures(codes);
+      }
+    });
+  }
+}
@@ -5,7 +5,7 @@ public class FractalRepresentation {
 	Pair<Integer, Integer> sourceFragmentOrigin;
 	Pair<Integer, Integer> destinationFragmentOrigin;
 	// The affine transformation used to rotate, flip, or reflect the pixels
-	String orthonormalTransformation;
+	OrthonormalTransformation orthonormalTransformation;
 	// The width and height of the region in pixels
 	Integer regionSize;
 	// The photometric or colorshifting operation needed to match the source
@@ -13,7 +13,7 @@ public class FractalRepresentation {
 	Double colorimetricContraction;
 
 	public FractalRepresentation(Pair<Integer, Integer> sourceFragmentOrigin, Pair<Integer, Integer> destinationFragmentOrigin,
-															 String orthonormalTransformation, Integer regionSize, Double colorimetricContraction) {
+															 OrthonormalTransformation orthonormalTransformation, Integer regionSize, Double colorimetricContraction) {
 		this.sourceFragmentOrigin = sourceFragmentOrigin;
 		this.destinationFragmentOrigin = destinationFragmentOrigin;
 		this.orthonormalTransformation = orthonormalTransformation;
@@ -37,11 +37,11 @@ public class FractalRepresentation {
 		this.destinationFragmentOrigin = destinationFragmentOrigin;
 	}
 
-	public String getOrthonormalTransformation() {
+	public OrthonormalTransformation getOrthonormalTransformation() {
 		return orthonormalTransformation;
 	}
 
-	public void setOrthonormalTransformation(String orthonormalTransformation) {
+	public void setOrthonormalTransformation(OrthonormalTransformation orthonormalTransformation) {
 		this.orthonormalTransformation = orthonormalTransformation;
 	}
 
@@ -1,408 +1,1020 @@
 package ravensproject;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
-import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class FractalsCommand {
 
-  private BufferedImage source;
-  private BufferedImage destination;
+  private static final OrthonormalTransformation[] TRANSFORMATIONS = OrthonormalTransformation.values();
+  // The bits of a packed search candidate that hold the fragment number
+  private static final long CANDIDATE_FRAGMENT_MASK = 0xFFFF;
+  // Grid size as key and the spatial terms of the grid as value
+  private static final ConcurrentMap<Integer, double[][]> SPATIAL_TERMS = new ConcurrentHashMap<>();
+
+  // The smallest grid on which the automatic search mode scores every pair of
+  // fragments at once
+  public static final int CORRELATION_GRID_SIZE = 8;
+  // The distance in fragments from the seeded source fragment within which a
+  // seeded search looks for a match
+  public static final int SEED_WINDOW_MARGIN = 1;
+  // The root mean square error per pixel up to which a seeded match is
+  // accepted without searching every source fragment
+  public static final double SEED_ACCEPTANCE_THRESHOLD = 16;
+  // The version of the encodings kept in the fractal code store, to be raised
+  // whenever a change to the encoder changes the codes it finds
+  public static final int ENCODER_VERSION = 1;
+
+  private GrayPlane source;
+  private GrayPlane destination;
   private int abstractionLevel;
-
-  public FractalsCommand(BufferedImage source, BufferedImage destination, int abstractionLevel) {
+  private SearchMode searchMode;
+  // Whether the classified search prints the comparisons it saved
+  private boolean reportingComparisons;
+  // The pairs of source fragment and transformation compared by the last
+  // execution, and the pairs a full search would have compared
+  private long comparisons;
+  private long possibleComparisons;
+  // The matches of a coarser grid used to seed the search, or null
+  private FragmentMatch[][] seedMatches;
+  // The matches found by the last execution
+  private FragmentMatch[][] matches;
+  // The number of seeded matches the last execution accepted
+  private int acceptedSeeds;
+  // The spatial terms of this command's grid
+  private double[][] spatialTerms;
+  // The time by which the execution gives up
+  private Deadline deadline;
+
+  public FractalsCommand(GrayPlane source, GrayPlane destination, int abstractionLevel) {
     this.source = source;
     this.destination = destination;
     this.abstractionLevel = abstractionLevel;
+    this.searchMode = SearchMode.AUTOMATIC;
+    this.deadline = Deadline.NONE;
+  }
+
+  public SearchMode getSearchMode() {
+    return searchMode;
+  }
+
+  public void setSearchMode(SearchMode searchMode) {
+    this.searchMode = searchMode;
+  }
+
+  public boolean isReportingComparisons() {
+    return reportingComparisons;
+  }
+
+  public void setReportingComparisons(boolean reportingComparisons) {
+    this.reportingComparisons = reportingComparisons;
+  }
+
+  public Deadline getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Sets the time by which an execution gives up. The deadline is checked
+   * between destination fragments, and an execution that passes it throws a
+   * CancellationException without storing any codes.
+   *
+   * @param deadline
+   */
+  public void setDeadline(Deadline deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Returns the number of transformed source fragments whose pixels the last
+   * classified execution compared with a destination fragment. A destination
+   * fragment whose class is empty counts as compared with every transformed
+   * source fragment.
+   *
+   * @return The number of comparisons made.
+   */
+  public long getComparisons() {
+    return comparisons;
+  }
+
+  /**
+   * Returns the number of comparisons the last classified execution saved
+   * over comparing every destination fragment with every source fragment
+   * under every transformation.
+   *
+   * @return The number of comparisons saved.
+   */
+  public long getSavedComparisons() {
+    return possibleComparisons - comparisons;
+  }
+
+  /**
+   * Seeds the search with the matches found on a coarser grid. The seeds are
+   * only used when the size of this command's grid is a multiple of the size
+   * of the coarser grid.
+   *
+   * @param seedMatches The matches of the coarser grid, or null.
+   */
+  public void setSeedMatches(FragmentMatch[][] seedMatches) {
+    this.seedMatches = seedMatches;
+  }
+
+  /**
+   * Returns the match of every destination fragment found by the last
+   * execution, indexed like the grid.
+   *
+   * @return The matches of the last execution.
+   */
+  public FragmentMatch[][] getMatches() {
+    return matches;
+  }
+
+  /**
+   * Returns the number of destination fragments the last execution matched
+   * near their seed without searching every source fragment.
+   *
+   * @return The number of seeded matches accepted.
+   */
+  public int getAcceptedSeeds() {
+    return acceptedSeeds;
+  }
+
+  /**
+   * Returns true when the seed matches can seed the search on this command's
+   * grid.
+   *
+   * @return True if the search is seeded.
+   */
+  public boolean isSeeded() {
+    return seedMatches != null
+        && abstractionLevel > seedMatches.length
+        && abstractionLevel % seedMatches.length == 0;
+  }
+
+  /**
+   * Returns the search mode used for this command's grid, resolving the
+   * automatic mode.
+   *
+   * @return The search mode to execute.
+   */
+  public SearchMode getEffectiveSearchMode() {
+    if (searchMode != SearchMode.AUTOMATIC)
+      return searchMode;
+
+    return abstractionLevel >= CORRELATION_GRID_SIZE ? SearchMode.CORRELATION : SearchMode.BOUNDED;
   }
 
   public Set<FractalRepresentation> execute() {
-    Set<FractalRepresentation> fractals = new HashSet<>();
-    
+    return FractalCode.decodeAll(executeCodes());
+  }
+
+  /**
+   * Encodes the destination image in the fragments of the source image and
+   * returns the fractal codes packed by FractalCode.
+   *
+   * @return The set of packed fractal codes.
+   */
+  public LongHashSet executeCodes() {
+    LongHashSet codes = new LongHashSet(abstractionLevel * abstractionLevel);
+    SearchMode mode = getEffectiveSearchMode();
+
     // Partition images into a grid of image fragments
-    BufferedImage[][] sourceFragments = partitionImage(source, abstractionLevel);
-    BufferedImage[][] destinationFragments = partitionImage(destination, abstractionLevel);
-    Map<Pair<Integer, Integer>, int[][]> sourceFragmentPixelMatrices = new HashMap<>();
-    Map<Pair<Integer, Integer>, int[][]> destinationFragmentPixelMatrices = new HashMap<>();
-    // Transformation name as key and transformed image as value
-    Map<String, int[][]> transformations = new LinkedHashMap<>();
-    // Transformation name as key and correspondence score as value
-    Map<String, Double> transformCorrespondences = new LinkedHashMap<>();
-    // Fragment location as key and transformation as value
-    Map<Pair<Integer, Integer>, String> fragmentTransformations = new LinkedHashMap<>();
-    // Fragment location as key and correspondence score as value
-    Map<Pair<Integer, Integer>, Double> fragmentCorrespondences = new LinkedHashMap<>();
-    
-    // Create pixel matrix for image fragments
-    for (int i = 0; i < destinationFragments.length; i++) {
-      for (int j = 0; j < destinationFragments.length; j++) {
-        sourceFragmentPixelMatrices.put(new Pair<>(i, j) ,getGrayscalePixelMatrix(sourceFragments[i][j]));
-        destinationFragmentPixelMatrices.put(new Pair<>(i, j) ,getGrayscalePixelMatrix(destinationFragments[i][j]));
+    GrayPlane[][] sourceFragments = partitionImage(source, abstractionLevel);
+    GrayPlane[][] destinationFragments = partitionImage(destination, abstractionLevel);
+    // The transformed images of each source fragment, indexed by fragment
+    // number and the ordinal of the transformation
+    GrayPlane[][] sourceFragmentTransformations = null;
+    // The classes of the transformed source fragments
+    int[][] sourceFragmentClasses = null;
+    // The matches of every destination fragment when they are found at once
+    FragmentMatch[][] correspondingFragments = null;
+
+    boolean seeded = isSeeded();
+    // Seeded and classified searches may settle for other matches than the
+    // exact search, so only exact encodings are stored
+    boolean exact = !seeded && mode.isExact();
+    FractalCodeStore store = exact ? FractalCodeStore.getDefault() : null;
+
+    comparisons = 0;
+    possibleComparisons = 0;
+    acceptedSeeds = 0;
+    matches = new FragmentMatch[abstractionLevel][abstractionLevel];
+
+    if (store != null) {
+      long[] storedCodes = store.get(source, destination, abstractionLevel, exact, ENCODER_VERSION);
+
+      if (storedCodes != null) {
+        for (long code : storedCodes) {
+          codes.add(code);
+          restoreMatch(code, sourceFragments, destinationFragments);
+        }
+        return codes;
       }
     }
 
+    if (mode == SearchMode.CORRELATION && !seeded) {
+      correspondingFragments = BlockCorrelationEngine.findMatches(
+          sourceFragments,
+          destinationFragments,
+          getSpatialTerms(abstractionLevel),
+          deadline
+      );
+    }
+    else {
+      sourceFragmentTransformations = transformSourceFragments(sourceFragments);
+    }
+
+    if (mode == SearchMode.CLASSIFIED)
+      sourceFragmentClasses = classifySourceFragments(sourceFragments);
+
     // Iterate through destination image fragments
     for (int i = 0; i < destinationFragments.length; i++) {
       for (int j = 0; j < destinationFragments.length; j++) {
-        // Iterate through source image fragments
-        for (int x = 0; x < sourceFragments.length; x++) {
-          for (int y = 0; y < sourceFragments.length; y++) {
-            // Get each affine transformation for the source image fragment
-            // Identity
-            transformations.put("identity", sourceFragmentPixelMatrices.get(new Pair<>(x, y)));
-            // Horizontal flip
-            transformations.put("hFlip", getGrayscalePixelMatrix(horizontalFlip(sourceFragments[x][y])));
-            // Vertical flip
-            transformations.put("vFlip", getGrayscalePixelMatrix(verticalFlip(sourceFragments[x][y])));
-            // Rotate 90 degrees
-            transformations.put("r90", getGrayscalePixelMatrix(rotateImage(sourceFragments[x][y], Math.PI / 2)));
-            // Rotate 180 degrees
-            transformations.put("r180", getGrayscalePixelMatrix(rotateImage(sourceFragments[x][y], Math.PI)));
-            // Rotate 270 degrees
-            transformations.put("r270", getGrayscalePixelMatrix(rotateImage(sourceFragments[x][y], 3 * Math.PI / 2)));
-            // Reflect ynx
-            transformations.put("reflYNX", getGrayscalePixelMatrix(rotate90Flip(sourceFragments[x][y])));
-            // Reflect yx
-            transformations.put("reflYX", getGrayscalePixelMatrix(rotate270Flip(sourceFragments[x][y])));
-
-            // Get the correspondence value for each transformation
-            for (Map.Entry<String, int[][]> transformation : transformations.entrySet()) {
-              transformCorrespondences.put(
-                  transformation.getKey(),
-                  getCorrespondence(
-                      transformation.getValue(), 
-                      destinationFragmentPixelMatrices.get(new Pair<>(i, j)), 
-                      new Pair<>(x, y), 
-                      new Pair<>(i, j)
-                  )
-              );
-            }
-
-            // Find the transformation with the lowest correspondence value
-            Map.Entry<String, Double> minimumTransform = null;
-            for (Map.Entry<String, Double> entry : transformCorrespondences.entrySet()) {
-              if (minimumTransform == null || minimumTransform.getValue() > entry.getValue()) {
-                minimumTransform = entry;
-              }
-            }
-
-            // Store the fragment with its transformation and correspondence value
-            fragmentTransformations.put(new Pair<>(x, y), minimumTransform.getKey());
-            fragmentCorrespondences.put(new Pair<>(x, y), minimumTransform.getValue());
-          }
-        }
+        int destinationFragment = getFragmentNumber(i, j);
+        FragmentMatch correspondingFragment;
 
-        // Get the fragment with the lowest correspondence value
-        Map.Entry<Pair<Integer, Integer>, Double> correspondingFragment = null;
-        for (Map.Entry<Pair<Integer, Integer>, Double> entry : fragmentCorrespondences.entrySet()) {
-          if (correspondingFragment == null || correspondingFragment.getValue() > entry.getValue()) {
-            correspondingFragment = entry;
-          }
+        deadline.check();
+        if (correspondingFragments != null) {
+          correspondingFragment = correspondingFragments[i][j];
+        }
+        else if (seeded) {
+          correspondingFragment = findSeededMatch(
+              sourceFragments,
+              sourceFragmentTransformations,
+              destinationFragments[i][j],
+              destinationFragment
+          );
+        }
+        else if (mode == SearchMode.EXHAUSTIVE) {
+          correspondingFragment = findExhaustiveMatch(
+              sourceFragmentTransformations,
+              destinationFragments[i][j],
+              destinationFragment
+          );
+        }
+        else if (mode == SearchMode.CLASSIFIED) {
+          correspondingFragment = findClassifiedMatch(
+              sourceFragments,
+              sourceFragmentTransformations,
+              sourceFragmentClasses,
+              destinationFragments[i][j],
+              destinationFragment
+          );
+        }
+        else {
+          correspondingFragment = findBoundedMatch(
+              sourceFragments,
+              sourceFragmentTransformations,
+              destinationFragments[i][j],
+              destinationFragment
+          );
         }
 
-        // Create the Fractal Representation from the fractal codes
-        FractalRepresentation fractal = new FractalRepresentation(
-            correspondingFragment.getKey(),
-            new Pair<>(i, j),
-            fragmentTransformations.get(correspondingFragment.getKey()),
+        matches[i][j] = correspondingFragment;
+
+        // Store the fractal code
+        int sourceRow = correspondingFragment.getSourceFragmentOrigin().getElement0();
+        int sourceColumn = correspondingFragment.getSourceFragmentOrigin().getElement1();
+        codes.add(FractalCode.encode(
+            sourceRow,
+            sourceColumn,
+            i,
+            j,
+            correspondingFragment.getTransformation(),
             destinationFragments[i][j].getHeight(),
-            getColorContraction(
-                sourceFragmentPixelMatrices.get(new Pair<>(
-                    correspondingFragment.getKey().getElement0(), 
-                    correspondingFragment.getKey().getElement1()
-                )),
-                destinationFragmentPixelMatrices.get(new Pair<>(i, j))
-            )
-        );
-
-        // Store fractal representation
-        fractals.add(fractal);
+            getColorContraction(sourceFragments[sourceRow][sourceColumn], destinationFragments[i][j])
+        ));
       }
     }
-    
-    return fractals;
+
+    if (reportingComparisons && mode == SearchMode.CLASSIFIED) {
+      System.out.println("Classified search at level " + abstractionLevel + ": compared " + comparisons + " of "
+          + possibleComparisons + " fragment pairs, saved " + getSavedComparisons());
+    }
+
+    if (store != null)
+      store.put(source, destination, abstractionLevel, exact, ENCODER_VERSION, codes.toArray());
+
+    return codes;
   }
 
   /**
-   * This method splits an image into a matrix of image fragments. Credit goes to
-   * Kalani Ruwanpathrana for the original code:
+   * Encodes the destination image in the fragments of the source image and
+   * the source image in the fragments of the destination image at once with
+   * MutualCorrelationEngine, which scores each pair of fragments once for
+   * both directions. The codes are the same as executeCodes finds for each
+   * direction. Seeded and classified searches are not symmetric, so with
+   * seed matches or the classified search mode each direction is encoded on
+   * its own.
    *
-   * http://kalanir.blogspot.com/2010/02/how-to-split-image-into-chunks-java.html
-   *
-   * @param image
-   * @param size
-   * @return
+   * @return The packed fractal codes of the destination image, then those
+   *         of the source image.
    */
-  public BufferedImage[][] partitionImage(BufferedImage image, int size) {
-    int rows = size;
-    int columns = size;
+  public LongHashSet[] executeMutualCodes() {
+    if (isSeeded() || !getEffectiveSearchMode().isExact()) {
+      FractalsCommand reverseCommand = new FractalsCommand(destination, source, abstractionLevel);
 
-    // Determine the fragment width and height
-    int fragmentWidth = image.getWidth() / columns;
-    int fragmentHeight = image.getHeight() / rows;
+      reverseCommand.setSearchMode(searchMode);
+      reverseCommand.setDeadline(deadline);
+      return new LongHashSet[] {executeCodes(), reverseCommand.executeCodes()};
+    }
 
-    BufferedImage[][] images = new BufferedImage[rows][columns];
-    for (int x = 0; x < rows; x++) {
-      for (int y = 0; y < columns; y++) {
-        // Initialize the image fragments in the array
-        images[x][y] = new BufferedImage(fragmentWidth, fragmentHeight, image.getType());
-
-        // Draw the image fragment
-        Graphics2D graphic = images[x][y].createGraphics();
-        graphic.drawImage(image, 0, 0, fragmentWidth, fragmentHeight, fragmentWidth * y, fragmentHeight * x,
-            fragmentWidth * y + fragmentWidth, fragmentHeight * x + fragmentHeight, null
-        );
-        graphic.dispose();
+    FractalCodeStore store = FractalCodeStore.getDefault();
+    LongHashSet[] codes = new LongHashSet[] {
+        new LongHashSet(abstractionLevel * abstractionLevel),
+        new LongHashSet(abstractionLevel * abstractionLevel)
+    };
+    GrayPlane[][] sourceFragments = partitionImage(source, abstractionLevel);
+    GrayPlane[][] destinationFragments = partitionImage(destination, abstractionLevel);
+
+    if (store != null) {
+      long[] storedCodes = store.get(source, destination, abstractionLevel, true, ENCODER_VERSION);
+      long[] storedReverseCodes = store.get(destination, source, abstractionLevel, true, ENCODER_VERSION);
+
+      if (storedCodes != null && storedReverseCodes != null) {
+        matches = new FragmentMatch[abstractionLevel][abstractionLevel];
+        for (long code : storedCodes) {
+          codes[0].add(code);
+          restoreMatch(code, sourceFragments, destinationFragments);
+        }
+        for (long code : storedReverseCodes) {
+          codes[1].add(code);
+        }
+        return codes;
       }
     }
 
-    return images;
+    FragmentMatch[][][] mutualMatches = MutualCorrelationEngine.findMatches(
+        sourceFragments,
+        destinationFragments,
+        getSpatialTerms(abstractionLevel),
+        deadline
+    );
+    // The mean gray level of every fragment, shared by both directions
+    int[] sourceMeans = new int[abstractionLevel * abstractionLevel];
+    int[] destinationMeans = new int[abstractionLevel * abstractionLevel];
+
+    for (int i = 0; i < abstractionLevel; i++) {
+      for (int j = 0; j < abstractionLevel; j++) {
+        sourceMeans[getFragmentNumber(i, j)] = getColorMean(sourceFragments[i][j]);
+        destinationMeans[getFragmentNumber(i, j)] = getColorMean(destinationFragments[i][j]);
+      }
+    }
+
+    matches = mutualMatches[0];
+    addCodes(mutualMatches[0], sourceMeans, destinationMeans, destination.getHeight() / abstractionLevel, codes[0]);
+    addCodes(mutualMatches[1], destinationMeans, sourceMeans, source.getHeight() / abstractionLevel, codes[1]);
+
+    if (store != null) {
+      store.put(source, destination, abstractionLevel, true, ENCODER_VERSION, codes[0].toArray());
+      store.put(destination, source, abstractionLevel, true, ENCODER_VERSION, codes[1].toArray());
+    }
+
+    return codes;
+  }
+
+  /**
+   * Adds the fractal codes of the matches of a grid to a set.
+   *
+   * @param matches The match of every destination fragment, indexed like the grid.
+   * @param sourceMeans The mean gray level of every source fragment.
+   * @param destinationMeans The mean gray level of every destination fragment.
+   * @param regionSize The height of the fragments in pixels.
+   * @param codes The set receiving the fractal codes.
+   */
+  private void addCodes(FragmentMatch[][] matches, int[] sourceMeans, int[] destinationMeans, int regionSize,
+                        LongHashSet codes) {
+    for (int i = 0; i < matches.length; i++) {
+      for (int j = 0; j < matches.length; j++) {
+        int sourceRow = matches[i][j].getSourceFragmentOrigin().getElement0();
+        int sourceColumn = matches[i][j].getSourceFragmentOrigin().getElement1();
+
+        codes.add(FractalCode.encode(
+            sourceRow,
+            sourceColumn,
+            i,
+            j,
+            matches[i][j].getTransformation(),
+            regionSize,
+            0.75 * (destinationMeans[getFragmentNumber(i, j)] - sourceMeans[getFragmentNumber(sourceRow, sourceColumn)])
+        ));
+      }
+    }
   }
-  
+
   /**
-   * Returns a matrix of pixel values, where 255 equals white and 0 equals black.
+   * Rebuilds the match of a destination fragment from its stored fractal
+   * code, so that a stored encoding can seed finer grids like a searched one.
+   * Only the matched pair of fragments is scored.
    *
-   * Original code by blackSmith:
-   * http://stackoverflow.com/questions/17278829/grayscale-bitmap-into-2d-array
+   * @param code The packed fractal code of the destination fragment.
+   * @param sourceFragments
+   * @param destinationFragments
    */
-  public int[][] getGrayscalePixelMatrix(BufferedImage image) {
-    int width = image.getWidth();
-    int height = image.getHeight();
-    int[][] matrix = new int[width][height];
+  private void restoreMatch(long code, GrayPlane[][] sourceFragments, GrayPlane[][] destinationFragments) {
+    int sourceRow = FractalCode.getSourceRow(code);
+    int sourceColumn = FractalCode.getSourceColumn(code);
+    int i = FractalCode.getDestinationRow(code);
+    int j = FractalCode.getDestinationColumn(code);
+    OrthonormalTransformation transformation = FractalCode.getTransformation(code);
+    GrayPlane sourceFragment = sourceFragments[sourceRow][sourceColumn];
+    int sourceFragmentNumber = getFragmentNumber(sourceRow, sourceColumn);
+    int size = sourceFragment.getWidth();
+    GrayPlane transformedFragment = new GrayPlane(size, size);
+
+    DihedralTransformEngine.transform(transformation, sourceFragment.toArray(), size, transformedFragment.getPixels());
+    matches[i][j] = new FragmentMatch(
+        new Pair<>(sourceRow, sourceColumn),
+        transformation,
+        sourceFragmentNumber * TRANSFORMATIONS.length + transformation.ordinal(),
+        1 * getPhotometricCorrespondence(transformedFragment, destinationFragments[i][j])
+            + getSpatialTerm(sourceFragmentNumber, getFragmentNumber(i, j))
+    );
+  }
 
-    Raster raster = image.getData();
-    for (int i = 0; i < width; i++) {
-      for (int j = 0; j < height; j++) {
-        matrix[i][j] = raster.getSample(i, j, 0);
+  /**
+   * Returns every orthonormal transformation of every source fragment. The
+   * transforms do not depend on the destination fragment they are compared
+   * against, so each source fragment is transformed once.
+   *
+   * @param sourceFragments
+   * @return The transformed fragments indexed by fragment number and the
+   *         ordinal of the transformation.
+   */
+  public GrayPlane[][] transformSourceFragments(GrayPlane[][] sourceFragments) {
+    GrayPlane[][] sourceFragmentTransformations = new GrayPlane[sourceFragments.length * sourceFragments.length][];
+
+    for (int x = 0; x < sourceFragments.length; x++) {
+      for (int y = 0; y < sourceFragments.length; y++) {
+        sourceFragmentTransformations[getFragmentNumber(x, y)] = DihedralTransformEngine.transformAll(sourceFragments[x][y]);
       }
     }
 
-    return matrix;
+    return sourceFragmentTransformations;
   }
-  
+
   /**
-   * This method returns the color contraction for two images.
+   * Searches for the best match of a destination fragment near the match of
+   * the coarser fragment that contains it. The transformation of the coarse
+   * match moves the destination fragment onto one of the finer fragments of
+   * the coarse source fragment, and only the source fragments within
+   * SEED_WINDOW_MARGIN of that fragment are searched. The result is accepted
+   * when its root mean square error per pixel is at most
+   * SEED_ACCEPTANCE_THRESHOLD, otherwise every source fragment is searched.
    *
-   * @param a
-   * @param b
-   * @return
+   * @param sourceFragments
+   * @param sourceFragmentTransformations The transformed source fragments.
+   * @param destinationFragment
+   * @param destinationFragmentNumber
+   * @return The best match found for the destination fragment.
    */
-  public double getColorContraction(int[][] pixelMatrixA, int[][] pixelMatrixB) {
-    return 0.75 * (getColorMean(pixelMatrixB) - getColorMean(pixelMatrixA));
+  public FragmentMatch findSeededMatch(
+      GrayPlane[][] sourceFragments,
+      GrayPlane[][] sourceFragmentTransformations,
+      GrayPlane destinationFragment,
+      int destinationFragmentNumber) {
+    int scale = abstractionLevel / seedMatches.length;
+    int i = getRow(destinationFragmentNumber);
+    int j = getColumn(destinationFragmentNumber);
+    FragmentMatch seed = seedMatches[i / scale][j / scale];
+    // Treat the coarse fragments as grids of finer fragments and follow the
+    // destination fragment through the transformation
+    int seedIndex = seed.getTransformation().getSourceIndex(j % scale, i % scale, scale);
+    int seedRow = seed.getSourceFragmentOrigin().getElement0() * scale + seedIndex / scale;
+    int seedColumn = seed.getSourceFragmentOrigin().getElement1() * scale + seedIndex % scale;
+    int top = Math.max(0, seedRow - SEED_WINDOW_MARGIN);
+    int bottom = Math.min(abstractionLevel - 1, seedRow + SEED_WINDOW_MARGIN);
+    int left = Math.max(0, seedColumn - SEED_WINDOW_MARGIN);
+    int right = Math.min(abstractionLevel - 1, seedColumn + SEED_WINDOW_MARGIN);
+    int[] sourceFragmentNumbers = new int[(bottom - top + 1) * (right - left + 1)];
+    int count = 0;
+
+    for (int x = top; x <= bottom; x++) {
+      for (int y = left; y <= right; y++) {
+        sourceFragmentNumbers[count++] = getFragmentNumber(x, y);
+      }
+    }
+
+    FragmentMatch match = findBoundedMatch(
+        sourceFragments,
+        sourceFragmentTransformations,
+        sourceFragmentNumbers,
+        destinationFragment,
+        destinationFragmentNumber
+    );
+    // The photometric part of the correspondence value is the sum of squared
+    // differences of the pixels
+    double error = match.getCorrespondence() - getSpatialTerm(match.getRank() / TRANSFORMATIONS.length,
+        destinationFragmentNumber);
+    int pixels = destinationFragment.getWidth() * destinationFragment.getHeight();
+
+    if (Math.sqrt(Math.max(0, error) / pixels) <= SEED_ACCEPTANCE_THRESHOLD) {
+      acceptedSeeds++;
+      return match;
+    }
+
+    return findBoundedMatch(sourceFragments, sourceFragmentTransformations, destinationFragment,
+        destinationFragmentNumber);
   }
 
   /**
-   * This method returns the mean color of an image. Credit goes to Dan O for
-   * the original code:
+   * Returns the class of every transformation of every source fragment.
    *
-   * http://stackoverflow.com/questions/12408431/how-can-i-get-the-average-colour-of-an-image
+   * @param sourceFragments
+   * @return The classes indexed by fragment number and the ordinal of the
+   *         transformation.
+   */
+  public int[][] classifySourceFragments(GrayPlane[][] sourceFragments) {
+    int[][] sourceFragmentClasses = new int[sourceFragments.length * sourceFragments.length][TRANSFORMATIONS.length];
+
+    for (int x = 0; x < sourceFragments.length; x++) {
+      for (int y = 0; y < sourceFragments.length; y++) {
+        long[] quadrantSums = FragmentClassifier.getQuadrantSums(sourceFragments[x][y]);
+
+        for (OrthonormalTransformation transformation : TRANSFORMATIONS) {
+          sourceFragmentClasses[getFragmentNumber(x, y)][transformation.ordinal()] =
+              FragmentClassifier.classify(quadrantSums, transformation);
+        }
+      }
+    }
+
+    return sourceFragmentClasses;
+  }
+
+  /**
+   * Compares a destination fragment only with the transformed source
+   * fragments of the same class and returns the best of them. Source
+   * fragments are visited in order of their lower bound as in
+   * findBoundedMatch. When no source fragment shares the class, the
+   * destination fragment is compared with every source fragment by
+   * findBoundedMatch.
    *
-   * @param image
-   * @return
+   * @param sourceFragments
+   * @param sourceFragmentTransformations The transformed source fragments.
+   * @param sourceFragmentClasses The classes of the transformed source fragments.
+   * @param destinationFragment
+   * @param destinationFragmentNumber
+   * @return The best match for the destination fragment within its class.
    */
-  public int getColorMean(int[][] pixelMatrix) {
-    long totalRed = 0;
-    long totalGreen = 0;
-    long totalBlue = 0;
-    int pixels = pixelMatrix.length * pixelMatrix.length;
-
-    for (int x = 0; x < pixelMatrix.length; x++) {
-      for (int y = 0; y < pixelMatrix.length; y++) {
-        // Get rgb values from pixel
-        int pixel = pixelMatrix[x][y];
-        int red = (pixel >> 16) & 0xFF;
-        int green = (pixel >> 8) & 0xFF;
-        int blue = pixel & 0xFF;
-
-        totalRed += red;
-        totalGreen += green;
-        totalBlue += blue;
+  public FragmentMatch findClassifiedMatch(
+      GrayPlane[][] sourceFragments,
+      GrayPlane[][] sourceFragmentTransformations,
+      int[][] sourceFragmentClasses,
+      GrayPlane destinationFragment,
+      int destinationFragmentNumber) {
+    int fragmentClass = FragmentClassifier.classify(FragmentClassifier.getQuadrantSums(destinationFragment));
+    int candidateCount = sourceFragmentTransformations.length * TRANSFORMATIONS.length;
+    long[] candidates = new long[sourceFragmentTransformations.length];
+    int count = 0;
+    double bestCorrespondence = Double.POSITIVE_INFINITY;
+    int bestRank = -1;
+
+    // Bound every source fragment with a transformation in the class from below
+    for (int fragment = 0; fragment < sourceFragmentTransformations.length; fragment++) {
+      for (OrthonormalTransformation transformation : TRANSFORMATIONS) {
+        if (sourceFragmentClasses[fragment][transformation.ordinal()] == fragmentClass) {
+          candidates[count++] = getCandidate(
+              getPhotometricLowerBound(sourceFragments[getRow(fragment)][getColumn(fragment)], destinationFragment)
+                  + getSpatialTerm(fragment, destinationFragmentNumber),
+              fragment
+          );
+          break;
+        }
       }
     }
 
-    // Scale the colors from 0-255 to 0.0-1.0
-    float red = (totalRed / pixels) / 255f;
-    float green = (totalGreen / pixels) / 255f;
-    float blue = (totalBlue / pixels) / 255f;
+    possibleComparisons += candidateCount;
+    if (count == 0) {
+      comparisons += candidateCount;
+      return findBoundedMatch(sourceFragments, sourceFragmentTransformations, destinationFragment,
+          destinationFragmentNumber);
+    }
+    Arrays.sort(candidates, 0, count);
+
+    for (int k = 0; k < count; k++) {
+      // Every remaining candidate is bounded below by a worse value
+      if (bestRank >= 0
+          && getCandidateBound(candidates[k]) > bestCorrespondence + BlockCorrelationEngine.BOUND_MARGIN)
+        break;
+
+      int fragment = getCandidateFragment(candidates[k]);
+      double distance = getSpatialTerm(fragment, destinationFragmentNumber);
+      GrayPlane[] transformedFragments = sourceFragmentTransformations[fragment];
+
+      for (int t = 0; t < TRANSFORMATIONS.length; t++) {
+        if (sourceFragmentClasses[fragment][t] != fragmentClass)
+          continue;
+
+        double bound = bestRank < 0 ? Double.POSITIVE_INFINITY : bestCorrespondence - distance + 1;
+        double correspondence = 1 * getPhotometricCorrespondence(transformedFragments[t], destinationFragment, bound)
+            + distance;
+        int rank = fragment * TRANSFORMATIONS.length + t;
+
+        comparisons++;
+        if (bestRank < 0 || correspondence < bestCorrespondence
+            || (correspondence == bestCorrespondence && rank < bestRank)) {
+          bestCorrespondence = correspondence;
+          bestRank = rank;
+        }
+      }
+    }
 
-    return new Color(red, green, blue).getRGB();
+    return getMatch(bestRank, bestCorrespondence);
   }
 
   /**
-   * This method returns the correspondence between two images.
+   * Compares a destination fragment with every source fragment under every
+   * transformation and returns the match with the lowest correspondence value.
    *
-   * @param a
-   * @param b
-   * @param aFragmentOrigin
-   * @param bFragmentOrigin
-   * @return
+   * @param sourceFragmentTransformations The transformed source fragments.
+   * @param destinationFragment
+   * @param destinationFragmentNumber
+   * @return The best match for the destination fragment.
    */
-  public double getCorrespondence(
-      int[][] pixelMatrixA, 
-      int[][] pixelMatrixB,                    
-      Pair<Integer, Integer> aFragmentOrigin, 
-      Pair<Integer, Integer> bFragmentOrigin) {
-    return 1 * getPhotometricCorrespondence(pixelMatrixA, pixelMatrixB) + 0.1 * getDistance(aFragmentOrigin, bFragmentOrigin);
+  public FragmentMatch findExhaustiveMatch(
+      GrayPlane[][] sourceFragmentTransformations,
+      GrayPlane destinationFragment,
+      int destinationFragmentNumber) {
+    // The transformation with the lowest correspondence value and the value,
+    // indexed by fragment number
+    OrthonormalTransformation[] fragmentTransformations = new OrthonormalTransformation[sourceFragmentTransformations.length];
+    double[] fragmentCorrespondences = new double[sourceFragmentTransformations.length];
+
+    // Iterate through source image fragments
+    for (int fragment = 0; fragment < sourceFragmentTransformations.length; fragment++) {
+      // Get each orthonormal transformation for the source image fragment
+      GrayPlane[] transformations = sourceFragmentTransformations[fragment];
+      double distance = getSpatialTerm(fragment, destinationFragmentNumber);
+
+      // Find the transformation with the lowest correspondence value
+      for (OrthonormalTransformation transformation : TRANSFORMATIONS) {
+        double correspondence = 1 * getPhotometricCorrespondence(
+            transformations[transformation.ordinal()],
+            destinationFragment
+        ) + distance;
+
+        if (fragmentTransformations[fragment] == null || fragmentCorrespondences[fragment] > correspondence) {
+          fragmentTransformations[fragment] = transformation;
+          fragmentCorrespondences[fragment] = correspondence;
+        }
+      }
+    }
+
+    // Get the fragment with the lowest correspondence value
+    int correspondingFragment = 0;
+    for (int fragment = 1; fragment < sourceFragmentTransformations.length; fragment++) {
+      if (fragmentCorrespondences[correspondingFragment] > fragmentCorrespondences[fragment]) {
+        correspondingFragment = fragment;
+      }
+    }
+
+    return getMatch(
+        correspondingFragment * TRANSFORMATIONS.length + fragmentTransformations[correspondingFragment].ordinal(),
+        fragmentCorrespondences[correspondingFragment]
+    );
   }
 
   /**
-   * This method returns the photometric correspondence between two images.
+   * Finds the same match as findExhaustiveMatch with a branch and bound
+   * search. Source fragments are visited in order of a lower bound on their
+   * correspondence value, so good candidates are found early, and a candidate
+   * is abandoned as soon as its partial correspondence value exceeds the best
+   * value found so far.
    *
-   * @param a
-   * @param b
-   * @return
+   * @param sourceFragments
+   * @param sourceFragmentTransformations The transformed source fragments.
+   * @param destinationFragment
+   * @param destinationFragmentNumber
+   * @return The best match for the destination fragment.
    */
-  public double getPhotometricCorrespondence(int[][] pixelMatrixA, int[][] pixelMatrixB) {
-    double c = 0;
+  public FragmentMatch findBoundedMatch(
+      GrayPlane[][] sourceFragments,
+      GrayPlane[][] sourceFragmentTransformations,
+      GrayPlane destinationFragment,
+      int destinationFragmentNumber) {
+    int[] sourceFragmentNumbers = new int[sourceFragmentTransformations.length];
+
+    for (int fragment = 0; fragment < sourceFragmentNumbers.length; fragment++) {
+      sourceFragmentNumbers[fragment] = fragment;
+    }
 
-    for (int x = 0; x < pixelMatrixA.length; x++) {
-      for (int y = 0; y < pixelMatrixA.length; y++) {
-          // TODO remove after testing
-//        c += Math.pow(getPhotometric(pixelMatrixB[x][y]) - getPhotometric(pixelMatrixA[x][y]), 2);
-          c += Math.pow(pixelMatrixB[x][y] - pixelMatrixA[x][y], 2);
+    return findBoundedMatch(
+        sourceFragments,
+        sourceFragmentTransformations,
+        sourceFragmentNumbers,
+        destinationFragment,
+        destinationFragmentNumber
+    );
+  }
+
+  /**
+   * Finds the best match for a destination fragment among some of the source
+   * fragments with the branch and bound search of findBoundedMatch.
+   *
+   * @param sourceFragments
+   * @param sourceFragmentTransformations The transformed source fragments.
+   * @param sourceFragmentNumbers The numbers of the source fragments to search.
+   * @param destinationFragment
+   * @param destinationFragmentNumber
+   * @return The best match for the destination fragment among the source fragments.
+   */
+  public FragmentMatch findBoundedMatch(
+      GrayPlane[][] sourceFragments,
+      GrayPlane[][] sourceFragmentTransformations,
+      int[] sourceFragmentNumbers,
+      GrayPlane destinationFragment,
+      int destinationFragmentNumber) {
+    long[] candidates = new long[sourceFragmentNumbers.length];
+    double bestCorrespondence = Double.POSITIVE_INFINITY;
+    int bestRank = -1;
+
+    // Bound every source fragment from below, the bound is the same for every
+    // transformation of the source fragment
+    for (int k = 0; k < sourceFragmentNumbers.length; k++) {
+      int fragment = sourceFragmentNumbers[k];
+
+      candidates[k] = getCandidate(
+          getPhotometricLowerBound(sourceFragments[getRow(fragment)][getColumn(fragment)], destinationFragment)
+              + getSpatialTerm(fragment, destinationFragmentNumber),
+          fragment
+      );
+    }
+    Arrays.sort(candidates);
+
+    for (long candidate : candidates) {
+      // Every remaining candidate is bounded below by a worse value
+      if (bestRank >= 0
+          && getCandidateBound(candidate) > bestCorrespondence + BlockCorrelationEngine.BOUND_MARGIN)
+        break;
+
+      int fragment = getCandidateFragment(candidate);
+      double distance = getSpatialTerm(fragment, destinationFragmentNumber);
+      GrayPlane[] transformedFragments = sourceFragmentTransformations[fragment];
+
+      for (int t = 0; t < TRANSFORMATIONS.length; t++) {
+        double bound = bestRank < 0 ? Double.POSITIVE_INFINITY : bestCorrespondence - distance + 1;
+        double correspondence = 1 * getPhotometricCorrespondence(transformedFragments[t], destinationFragment, bound)
+            + distance;
+        int rank = fragment * TRANSFORMATIONS.length + t;
+
+        if (bestRank < 0 || correspondence < bestCorrespondence
+            || (correspondence == bestCorrespondence && rank < bestRank)) {
+          bestCorrespondence = correspondence;
+          bestRank = rank;
+        }
       }
     }
 
-    return c;
+    return getMatch(bestRank, bestCorrespondence);
   }
 
   /**
-   * This method gets the photometric value for a pixel in the RGB color space.
+   * Returns the number of the fragment in a row and column of this command's
+   * grid. Fragments are numbered row by row, in the order an exhaustive
+   * search visits them.
    *
-   * @param pixel
-   * @return
+   * @param row
+   * @param column
+   * @return The fragment number.
    */
-  public double getPhotometric(int pixel) {
-    int red = (pixel >> 16) & 0xFF;
-    int green = (pixel >> 8) & 0xFF;
-    int blue = pixel & 0xFF;
+  public int getFragmentNumber(int row, int column) {
+    return row * abstractionLevel + column;
+  }
 
-    return 0.3 * red + 0.59 * green + 0.11 * blue;
+  /**
+   * Returns the row of a fragment of this command's grid.
+   *
+   * @param fragmentNumber
+   * @return The row of the fragment.
+   */
+  public int getRow(int fragmentNumber) {
+    return fragmentNumber / abstractionLevel;
   }
 
   /**
-   * This method implements the distance formula for two ordered pairs.
+   * Returns the column of a fragment of this command's grid.
    *
-   * @param aFragmentOrigin
-   * @param bFragmentOrigin
-   * @return
+   * @param fragmentNumber
+   * @return The column of the fragment.
    */
-  public double getDistance(Pair<Integer, Integer> aFragmentOrigin, Pair<Integer, Integer> bFragmentOrigin) {
-    return Math.sqrt(
-        Math.pow(bFragmentOrigin.getElement0() - aFragmentOrigin.getElement0(), 2)
-            + Math.pow(bFragmentOrigin.getElement1() - aFragmentOrigin.getElement1(), 2)
-    );
+  public int getColumn(int fragmentNumber) {
+    return fragmentNumber % abstractionLevel;
   }
 
   /**
-   * This method flips an image horizontally. Credit goes to Byron Kiourtzoglou
-   * for the original code:
+   * Returns the spatial term of the correspondence value of two fragments of
+   * this command's grid, read from the table of the grid.
    *
-   * http://examples.javacodegeeks.com/desktop-java/awt/image/flipping-a-buffered-image/
+   * @param sourceFragmentNumber
+   * @param destinationFragmentNumber
+   * @return 0.1 times the distance between the fragments.
+   */
+  public double getSpatialTerm(int sourceFragmentNumber, int destinationFragmentNumber) {
+    if (spatialTerms == null)
+      spatialTerms = getSpatialTerms(abstractionLevel);
+
+    return spatialTerms[Math.abs(getRow(sourceFragmentNumber) - getRow(destinationFragmentNumber))]
+        [Math.abs(getColumn(sourceFragmentNumber) - getColumn(destinationFragmentNumber))];
+  }
+
+  /**
+   * Returns the match for a rank of an exhaustive search.
    *
-   * @param image
-   * @return
+   * @param rank
+   * @param correspondence
+   * @return The match.
+   */
+  private FragmentMatch getMatch(int rank, double correspondence) {
+    int fragment = rank / TRANSFORMATIONS.length;
+
+    return new FragmentMatch(
+        new Pair<>(getRow(fragment), getColumn(fragment)),
+        TRANSFORMATIONS[rank % TRANSFORMATIONS.length],
+        rank,
+        correspondence
+    );
+  }
+
+  /**
+   * Packs the lower bound of a candidate source fragment and its number into
+   * a long that sorts like the bound. The bits of a non-negative double sort
+   * like the double, and the lowest bits of the bound make room for the
+   * fragment number. Dropping them only reorders candidates whose bounds
+   * are all but equal, which changes the order of the search but not the
+   * match it finds.
+   *
+   * @param lowerBound
+   * @param fragmentNumber
+   * @return The packed candidate.
    */
-  public BufferedImage horizontalFlip(BufferedImage image) {
-    BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+  private static long getCandidate(double lowerBound, int fragmentNumber) {
+    return (Double.doubleToLongBits(lowerBound) & ~CANDIDATE_FRAGMENT_MASK) | fragmentNumber;
+  }
 
-    AffineTransform tx = AffineTransform.getScaleInstance(-1, 1);
-    tx.translate(-image.getWidth(null), 0);
-    AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-    op.filter(image, result);
+  private static double getCandidateBound(long candidate) {
+    return Double.longBitsToDouble(candidate & ~CANDIDATE_FRAGMENT_MASK);
+  }
 
-    return result;
+  private static int getCandidateFragment(long candidate) {
+    return (int) (candidate & CANDIDATE_FRAGMENT_MASK);
   }
 
   /**
-   * This method flips an image vertically. Credit goes to Byron Kiourtzoglou
-   * for the original code:
+   * This method splits an image into a matrix of image fragments. Credit goes to
+   * Kalani Ruwanpathrana for the original code:
+   *
+   * http://kalanir.blogspot.com/2010/02/how-to-split-image-into-chunks-java.html
    *
-   * http://examples.javacodegeeks.com/desktop-java/awt/image/flipping-a-buffered-image/
+   * The fragments are views that share their pixels with the image, so no
+   * pixels are copied.
    *
    * @param image
+   * @param size
    * @return
    */
-  public BufferedImage verticalFlip(BufferedImage image) {
-    BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+  public GrayPlane[][] partitionImage(GrayPlane image, int size) {
+    int rows = size;
+    int columns = size;
+
+    // Determine the fragment width and height
+    int fragmentWidth = image.getWidth() / columns;
+    int fragmentHeight = image.getHeight() / rows;
 
-    AffineTransform tx = AffineTransform.getScaleInstance(1, -1);
-    tx.translate(0, -image.getHeight(null));
-    AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-    op.filter(image, result);
+    GrayPlane[][] images = new GrayPlane[rows][columns];
+    for (int x = 0; x < rows; x++) {
+      for (int y = 0; y < columns; y++) {
+        // View the image fragment
+        images[x][y] = image.view(fragmentWidth * y, fragmentHeight * x, fragmentWidth, fragmentHeight);
+      }
+    }
 
-    return result;
+    return images;
   }
 
   /**
-   * This method rotates an image about its center. Theta is a radian value:
-   *
-   * 90 degrees = pi / 2
-   * 180 degrees = pi
-   * 270 degrees = 3 * pi / 2
+   * This method returns the color contraction for two images.
    *
-   * @return The result of the transformation
-   * @image The image to rotate
-   * @theta A radian value for the rotation.
+   * @param a
+   * @param b
+   * @return
    */
-  public BufferedImage rotateImage(BufferedImage image, double theta) {
-    BufferedImage result = new BufferedImage(image.getHeight(), image.getWidth(), image.getType());
+  public double getColorContraction(GrayPlane pixelMatrixA, GrayPlane pixelMatrixB) {
+    return 0.75 * (getColorMean(pixelMatrixB) - getColorMean(pixelMatrixA));
+  }
 
-        /* Transformations are stacked then applied so the last transformation is the first to happen */
-    AffineTransform tx = new AffineTransform();
+  /**
+   * This method returns the mean gray level of an image, read from the
+   * summed-area tables of the image.
+   *
+   * @param pixelMatrix
+   * @return
+   */
+  public int getColorMean(GrayPlane pixelMatrix) {
+    return (int) (pixelMatrix.getSum() / (pixelMatrix.getWidth() * pixelMatrix.getHeight()));
+  }
 
-    tx.translate(image.getHeight() / 2, image.getWidth() / 2);
-    tx.rotate(theta);
-    tx.translate(-image.getWidth() / 2, -image.getHeight() / 2);
+  /**
+   * This method returns the photometric correspondence between two images,
+   * the sum of squared differences of their pixels. The sum is expanded as
+   * sum(a^2) + sum(b^2) - 2 * sum(ab), so only the cross term is computed
+   * per pair and the squared sums come from the summed-area tables.
+   *
+   * @param pixelMatrixA
+   * @param pixelMatrixB
+   * @return
+   */
+  public double getPhotometricCorrespondence(GrayPlane pixelMatrixA, GrayPlane pixelMatrixB) {
+    return pixelMatrixA.getSquareSum() + pixelMatrixB.getSquareSum() - 2 * getCrossCorrelation(pixelMatrixA, pixelMatrixB);
+  }
 
-    AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
-    op.filter(image, result);
+  /**
+   * This method returns the sum of the products of corresponding pixels of
+   * two images.
+   *
+   * @param pixelMatrixA
+   * @param pixelMatrixB
+   * @return
+   */
+  public long getCrossCorrelation(GrayPlane pixelMatrixA, GrayPlane pixelMatrixB) {
+    return PixelKernels.getCrossTerm(pixelMatrixA, pixelMatrixB);
+  }
 
-    return result;
+  /**
+   * This method returns a lower bound on the photometric correspondence of two
+   * images that holds under every orthonormal transformation. The sum of
+   * squared differences splits into a term for the difference of the means
+   * and a term for the centred pixels, which is at least the squared
+   * difference of the norms of the centred pixels.
+   *
+   * @param pixelMatrixA
+   * @param pixelMatrixB
+   * @return
+   */
+  public double getPhotometricLowerBound(GrayPlane pixelMatrixA, GrayPlane pixelMatrixB) {
+    double pixels = pixelMatrixA.getWidth() * pixelMatrixA.getHeight();
+    double sumA = pixelMatrixA.getSum();
+    double sumB = pixelMatrixB.getSum();
+    double normA = Math.sqrt(Math.max(0, pixelMatrixA.getSquareSum() - sumA * sumA / pixels));
+    double normB = Math.sqrt(Math.max(0, pixelMatrixB.getSquareSum() - sumB * sumB / pixels));
+
+    return (sumA - sumB) * (sumA - sumB) / pixels + (normA - normB) * (normA - normB);
   }
 
   /**
-   * This method reflects an image over the y-axis and then rotates the
-   * image 270 degrees.
+   * This method returns the photometric correspondence between two images, or
+   * a partial sum greater than the bound as soon as the correspondence is
+   * known to exceed the bound.
    *
-   * @param image
+   * @param pixelMatrixA
+   * @param pixelMatrixB
+   * @param bound The value beyond which the exact correspondence is not needed.
    * @return
    */
-  public BufferedImage rotate90Flip(BufferedImage image) {
-    BufferedImage result = null;
+  public double getPhotometricCorrespondence(GrayPlane pixelMatrixA, GrayPlane pixelMatrixB, double bound) {
+    return PixelKernels.getSquaredDifference(pixelMatrixA, pixelMatrixB, bound);
+  }
 
-    // Rotate 90 degrees
-    result = rotateImage(image, Math.PI / 2);
-    // Reflect image over x axis
-    result = verticalFlip(result);
+  /**
+   * This method returns the spatial term of the correspondence value for every
+   * pair of fragment distances in a grid. The table of each grid size is
+   * built once and shared, it must not be modified.
+   *
+   * @param size The number of fragments in each row and column of the grid.
+   * @return The spatial terms indexed by row distance and column distance.
+   */
+  public double[][] getSpatialTerms(int size) {
+    double[][] spatialTerms = SPATIAL_TERMS.get(size);
+
+    if (spatialTerms == null) {
+      spatialTerms = new double[size][size];
+
+      for (int x = 0; x < size; x++) {
+        for (int y = 0; y < size; y++) {
+          spatialTerms[x][y] = 0.1 * getDistance(new Pair<>(0, 0), new Pair<>(x, y));
+        }
+      }
+
+      double[][] existing = SPATIAL_TERMS.putIfAbsent(size, spatialTerms);
+      if (existing != null)
+        spatialTerms = existing;
+    }
 
-    return result;
+    return spatialTerms;
   }
 
   /**
-   * This method reflects an image over the x-axis and then rotates the
-   * image 270 degrees.
+   * This method implements the distance formula for two ordered pairs.
    *
-   * @param image
+   * @param aFragmentOrigin
+   * @param bFragmentOrigin
    * @return
    */
-  public BufferedImage rotate270Flip(BufferedImage image) {
-    BufferedImage result = null;
-
-    // Rotate 270 degrees
-    result = rotateImage(image, 3 * Math.PI / 2);
-    // Reflect image over x axis
-    result = verticalFlip(result);
+  public double getDistance(Pair<Integer, Integer> aFragmentOrigin, Pair<Integer, Integer> bFragmentOrigin) {
+    int rows = bFragmentOrigin.getElement0() - aFragmentOrigin.getElement0();
+    int columns = bFragmentOrigin.getElement1() - aFragmentOrigin.getElement1();
 
-    return result;
+    return Math.sqrt(rows * rows + columns * columns);
   }
-  
+
 }
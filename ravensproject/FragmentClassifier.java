@@ -0,0 +1,99 @@
+package ravensproject;
+
+/**
+ * Sorts fragments into classes by the brightness order of their quadrants, as
+ * in Fisher's classification of range and domain blocks. A fragment is split
+ * into four corner quadrants and the class is the order in which the quadrant
+ * sums rank, one of 24 permutations. Fragments whose quadrants are ordered
+ * differently are unlikely to correspond well, so a classified search only
+ * compares fragments of the same class.
+ *
+ * The orthonormal transformations move quadrants onto quadrants, so the class
+ * of a transformed fragment is found by permuting the quadrant sums of the
+ * fragment itself without transforming any pixels.
+ */
+public class FragmentClassifier {
+
+  // The number of classes, one per order of four quadrants
+  public static final int CLASSES = 24;
+
+  private FragmentClassifier() {
+  }
+
+  /**
+   * Returns the pixel sums of the top left, top right, bottom left and bottom
+   * right quadrants of a square fragment. For odd sizes the middle row and
+   * column belong to no quadrant, which keeps the quadrants the same size.
+   *
+   * @param fragment
+   * @return The quadrant sums, in reading order.
+   */
+  public static long[] getQuadrantSums(GrayPlane fragment) {
+    int size = fragment.getWidth();
+    int half = size / 2;
+
+    return new long[] {
+        fragment.view(0, 0, half, half).getSum(),
+        fragment.view(size - half, 0, half, half).getSum(),
+        fragment.view(0, size - half, half, half).getSum(),
+        fragment.view(size - half, size - half, half, half).getSum()
+    };
+  }
+
+  /**
+   * Returns the class of a fragment after a transformation, given the quadrant
+   * sums of the untransformed fragment.
+   *
+   * @param quadrantSums The quadrant sums of the untransformed fragment.
+   * @param transformation
+   * @return The class in the range 0-23.
+   */
+  public static int classify(long[] quadrantSums, OrthonormalTransformation transformation) {
+    long[] transformedSums = new long[4];
+
+    for (int quadrant = 0; quadrant < 4; quadrant++) {
+      transformedSums[quadrant] = quadrantSums[getSourceQuadrant(quadrant, transformation)];
+    }
+
+    return classify(transformedSums);
+  }
+
+  /**
+   * Returns the class of a fragment from its quadrant sums. Quadrants are
+   * ranked from darkest to brightest, equal sums in reading order, and the
+   * ranking is numbered by its Lehmer code.
+   *
+   * @param quadrantSums
+   * @return The class in the range 0-23.
+   */
+  public static int classify(long[] quadrantSums) {
+    int result = 0;
+
+    for (int quadrant = 0; quadrant < 4; quadrant++) {
+      int rank = 0;
+
+      // Count the later quadrants that rank before this one
+      for (int other = quadrant + 1; other < 4; other++) {
+        if (quadrantSums[other] < quadrantSums[quadrant])
+          rank++;
+      }
+
+      result = result * (4 - quadrant) + rank;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the quadrant of a fragment that a transformation moves onto a
+   * quadrant of the transformed fragment. Corners move onto corners, so the
+   * quadrant is found by transforming a fragment of two by two pixels.
+   *
+   * @param quadrant The quadrant of the transformed fragment, in reading order.
+   * @param transformation
+   * @return The quadrant of the untransformed fragment, in reading order.
+   */
+  private static int getSourceQuadrant(int quadrant, OrthonormalTransformation transformation) {
+    return transformation.getSourceIndex(quadrant % 2, quadrant / 2, 2);
+  }
+}
@@ -0,0 +1,40 @@
+package ravensproject;
+
+/**
+ * A candidate match for a destination fragment: a source fragment, the
+ * transformation applied to it and the resulting correspondence value. When
+ * two matches have the same correspondence value, the one found first by an
+ * exhaustive search wins, which is the one with the lower rank.
+ */
+public class FragmentMatch {
+
+  private final Pair<Integer, Integer> sourceFragmentOrigin;
+  private final OrthonormalTransformation transformation;
+  // The order in which an exhaustive search visits this match
+  private final int rank;
+  private final double correspondence;
+
+  public FragmentMatch(Pair<Integer, Integer> sourceFragmentOrigin, OrthonormalTransformation transformation,
+                       int rank, double correspondence) {
+    this.sourceFragmentOrigin = sourceFragmentOrigin;
+    this.transformation = transformation;
+    this.rank = rank;
+    this.correspondence = correspondence;
+  }
+
+  public Pair<Integer, Integer> getSourceFragmentOrigin() {
+    return sourceFragmentOrigin;
+  }
+
+  public OrthonormalTransformation getTransformation() {
+    return transformation;
+  }
+
+  public int getRank() {
+    return rank;
+  }
+
+  public double getCorrespondence() {
+    return correspondence;
+  }
+}
@@ -0,0 +1,247 @@
+package ravensproject;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+
+/**
+ * A rectangle of 8-bit grayscale pixels, where 255 equals white and 0 equals
+ * black. The pixels live in a flat byte array addressed by an offset and a
+ * row stride, so a plane can be a view onto a region of a larger plane
+ * without copying any pixels.
+ *
+ * Pixel sums over a view are answered from a summed-area table of the plane
+ * the view was taken from, which is built the first time a view asks for it.
+ *
+ * This class is immutable, although views share their pixels with the plane
+ * they were taken from.
+ */
+public class GrayPlane {
+
+  private final byte[] pixels;
+  // Index of the top left pixel in the pixel array
+  private final int offset;
+  // Distance in the pixel array between vertically adjacent pixels
+  private final int stride;
+  private final int width;
+  private final int height;
+  // The plane this plane is a view of, and the position of this plane in it
+  private final GrayPlane root;
+  private final int left;
+  private final int top;
+  // Lazily computed summed-area tables and totals
+  private volatile IntegralImage integralImage;
+  private volatile long sum = -1;
+  private volatile long squareSum = -1;
+  private volatile long contentHash;
+
+  public GrayPlane(byte[] pixels, int offset, int stride, int width, int height) {
+    this.pixels = pixels;
+    this.offset = offset;
+    this.stride = stride;
+    this.width = width;
+    this.height = height;
+    this.root = this;
+    this.left = 0;
+    this.top = 0;
+  }
+
+  private GrayPlane(GrayPlane root, int left, int top, int width, int height) {
+    this.pixels = root.pixels;
+    this.offset = root.offset + top * root.stride + left;
+    this.stride = root.stride;
+    this.width = width;
+    this.height = height;
+    this.root = root;
+    this.left = left;
+    this.top = top;
+  }
+
+  /**
+   * Creates a compact plane that owns a new array of pixels.
+   *
+   * @param width
+   * @param height
+   */
+  public GrayPlane(int width, int height) {
+    this(new byte[width * height], 0, width, width, height);
+  }
+
+  /**
+   * Returns a plane over the pixels of an image. A TYPE_BYTE_GRAY image is
+   * read straight from its data buffer without copying the raster, any other
+   * image is converted to grayscale first.
+   *
+   * @param image
+   * @return A plane holding the grayscale pixels of the image.
+   */
+  public static GrayPlane fromImage(BufferedImage image) {
+    if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+      BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+      Graphics graphics = gray.getGraphics();
+
+      graphics.drawImage(image, 0, 0, null);
+      graphics.dispose();
+      image = gray;
+    }
+
+    Raster raster = image.getRaster();
+    DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+    ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+    int offset = buffer.getOffset() + sampleModel.getOffset(
+        -raster.getSampleModelTranslateX(),
+        -raster.getSampleModelTranslateY()
+    );
+
+    return new GrayPlane(buffer.getData(), offset, sampleModel.getScanlineStride(), image.getWidth(), image.getHeight());
+  }
+
+  public byte[] getPixels() {
+    return pixels;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int getStride() {
+    return stride;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the value of the pixel in column x and row y.
+   *
+   * @param x
+   * @param y
+   * @return The pixel value in the range 0-255.
+   */
+  public int get(int x, int y) {
+    return pixels[offset + y * stride + x] & 0xFF;
+  }
+
+  /**
+   * Returns a view onto a rectangular region of this plane. The view shares
+   * its pixels with this plane.
+   *
+   * @param x The column of the top left pixel of the region.
+   * @param y The row of the top left pixel of the region.
+   * @param width
+   * @param height
+   * @return A plane over the region.
+   */
+  public GrayPlane view(int x, int y, int width, int height) {
+    return new GrayPlane(root, left + x, top + y, width, height);
+  }
+
+  /**
+   * Returns the summed-area tables of this plane, building them on first use.
+   *
+   * @return The summed-area tables of this plane.
+   */
+  public IntegralImage getIntegralImage() {
+    IntegralImage result = integralImage;
+
+    if (result == null) {
+      result = new IntegralImage(this);
+      integralImage = result;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the sum of the pixel values of this plane.
+   *
+   * @return The sum of the pixel values.
+   */
+  public long getSum() {
+    if (root != this)
+      return root.getIntegralImage().getSum(left, top, width, height);
+
+    if (sum < 0)
+      sum = PixelKernels.getSum(this);
+
+    return sum;
+  }
+
+  /**
+   * Returns the sum of the squared pixel values of this plane.
+   *
+   * @return The sum of the squared pixel values.
+   */
+  public long getSquareSum() {
+    if (root != this)
+      return root.getIntegralImage().getSquareSum(left, top, width, height);
+
+    if (squareSum < 0)
+      squareSum = PixelKernels.getSquareSum(this);
+
+    return squareSum;
+  }
+
+  /**
+   * Returns a 64-bit FNV-1a hash of the size and the pixels of this plane.
+   * Planes with equal pixels hash equally whether or not they are views, so
+   * the hash identifies the content of a plane across runs.
+   *
+   * @return The content hash.
+   */
+  public long getContentHash() {
+    long result = contentHash;
+
+    if (result == 0) {
+      result = 0xcbf29ce484222325L;
+      result = (result ^ width) * 0x100000001b3L;
+      result = (result ^ height) * 0x100000001b3L;
+
+      for (int y = 0; y < height; y++) {
+        int row = offset + y * stride;
+
+        for (int x = 0; x < width; x++) {
+          result = (result ^ (pixels[row + x] & 0xFF)) * 0x100000001b3L;
+        }
+      }
+
+      // Zero marks a hash that has not been computed
+      if (result == 0)
+        result = 1;
+      contentHash = result;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the pixels of this plane row by row in a new array.
+   *
+   * @return A compact copy of the pixels.
+   */
+  public byte[] toArray() {
+    byte[] result = new byte[width * height];
+
+    for (int y = 0; y < height; y++) {
+      System.arraycopy(pixels, offset + y * stride, result, y * width, width);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns a compact copy of this plane that does not share its pixels.
+   *
+   * @return A compact copy of this plane.
+   */
+  public GrayPlane copy() {
+    return new GrayPlane(toArray(), 0, width, width, height);
+  }
+}
@@ -0,0 +1,73 @@
+package ravensproject;
+
+/**
+ * Summed-area tables of the pixel values and the squared pixel values of a
+ * plane. Once built, the sum or the sum of squares over any rectangle of the
+ * plane takes four table lookups.
+ */
+public class IntegralImage {
+
+  private final int width;
+  // Entry (x, y) holds the sum over the rectangle from (0, 0) up to but not
+  // including (x, y), so the tables have one more row and column than the plane
+  private final long[] sums;
+  private final long[] squareSums;
+
+  public IntegralImage(GrayPlane plane) {
+    int height = plane.getHeight();
+    byte[] pixels = plane.getPixels();
+
+    this.width = plane.getWidth();
+    this.sums = new long[(width + 1) * (height + 1)];
+    this.squareSums = new long[(width + 1) * (height + 1)];
+
+    for (int y = 0; y < height; y++) {
+      int row = plane.getOffset() + y * plane.getStride();
+      long rowSum = 0;
+      long rowSquareSum = 0;
+
+      for (int x = 0; x < width; x++) {
+        int pixel = pixels[row + x] & 0xFF;
+        int index = (y + 1) * (width + 1) + x + 1;
+
+        rowSum += pixel;
+        rowSquareSum += pixel * pixel;
+        sums[index] = sums[index - width - 1] + rowSum;
+        squareSums[index] = squareSums[index - width - 1] + rowSquareSum;
+      }
+    }
+  }
+
+  /**
+   * Returns the sum of the pixel values in a rectangle.
+   *
+   * @param x The column of the top left pixel of the rectangle.
+   * @param y The row of the top left pixel of the rectangle.
+   * @param width
+   * @param height
+   * @return The sum of the pixel values.
+   */
+  public long getSum(int x, int y, int width, int height) {
+    return getRectangle(sums, x, y, width, height);
+  }
+
+  /**
+   * Returns the sum of the squared pixel values in a rectangle.
+   *
+   * @param x The column of the top left pixel of the rectangle.
+   * @param y The row of the top left pixel of the rectangle.
+   * @param width
+   * @param height
+   * @return The sum of the squared pixel values.
+   */
+  public long getSquareSum(int x, int y, int width, int height) {
+    return getRectangle(squareSums, x, y, width, height);
+  }
+
+  private long getRectangle(long[] table, int x, int y, int width, int height) {
+    int top = y * (this.width + 1);
+    int bottom = (y + height) * (this.width + 1);
+
+    return table[bottom + x + width] - table[bottom + x] - table[top + x + width] + table[top + x];
+  }
+}
@@ -0,0 +1,173 @@
+package ravensproject;
+
+import java.util.Arrays;
+
+/**
+ * A set of long values stored in an open-addressing hash table with linear
+ * probing, without boxing the values. Zero marks an empty slot, so whether
+ * the set holds zero is kept separately.
+ *
+ * This class is not thread safe.
+ */
+public class LongHashSet {
+
+  private static final int DEFAULT_CAPACITY = 16;
+  private static final long EMPTY = 0;
+
+  private long[] slots;
+  private boolean containsEmpty;
+  private int size;
+
+  public LongHashSet() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a set that holds the expected number of values without growing.
+   *
+   * @param expectedSize
+   */
+  public LongHashSet(int expectedSize) {
+    int capacity = DEFAULT_CAPACITY;
+
+    // Keep the table at most half full
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    this.slots = new long[capacity];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Adds a value to this set.
+   *
+   * @param value
+   * @return True if the set did not hold the value.
+   */
+  public boolean add(long value) {
+    if (value == EMPTY) {
+      if (containsEmpty)
+        return false;
+
+      containsEmpty = true;
+      size++;
+      return true;
+    }
+
+    int mask = slots.length - 1;
+    int slot = hash(value) & mask;
+
+    while (slots[slot] != EMPTY) {
+      if (slots[slot] == value)
+        return false;
+
+      slot = (slot + 1) & mask;
+    }
+
+    slots[slot] = value;
+    size++;
+    if (size * 2 > slots.length)
+      resize(slots.length * 2);
+
+    return true;
+  }
+
+  /**
+   * Adds every value of another set to this set.
+   *
+   * @param other
+   */
+  public void addAll(LongHashSet other) {
+    if (other.containsEmpty)
+      add(EMPTY);
+
+    for (long value : other.slots) {
+      if (value != EMPTY)
+        add(value);
+    }
+  }
+
+  /**
+   * Returns true when this set holds a value.
+   *
+   * @param value
+   * @return True if the set holds the value.
+   */
+  public boolean contains(long value) {
+    if (value == EMPTY)
+      return containsEmpty;
+
+    int mask = slots.length - 1;
+    int slot = hash(value) & mask;
+
+    while (slots[slot] != EMPTY) {
+      if (slots[slot] == value)
+        return true;
+
+      slot = (slot + 1) & mask;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the values of this set in ascending order.
+   *
+   * @return A new array holding the values.
+   */
+  public long[] toArray() {
+    long[] values = new long[size];
+    int count = 0;
+
+    if (containsEmpty)
+      values[count++] = EMPTY;
+    for (long value : slots) {
+      if (value != EMPTY)
+        values[count++] = value;
+    }
+    Arrays.sort(values);
+
+    return values;
+  }
+
+  private void resize(int capacity) {
+    long[] oldSlots = slots;
+    int mask = capacity - 1;
+
+    slots = new long[capacity];
+    for (long value : oldSlots) {
+      if (value != EMPTY) {
+        int slot = hash(value) & mask;
+
+        while (slots[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+      }
+    }
+  }
+
+  /**
+   * Spreads the bits of a value over the low bits used to pick a slot, the
+   * finalizer of MurmurHash3.
+   *
+   * @param value
+   * @return The hash of the value.
+   */
+  private static int hash(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+
+    return (int) value;
+  }
+}
@@ -0,0 +1,264 @@
+package ravensproject;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Finds the best matches of a grid in both directions at once: the best
+ * source fragment and transformation for every fragment of the second image
+ * among the fragments of the first image, and for every fragment of the first
+ * image among the fragments of the second image.
+ *
+ * Orthonormal transformations preserve sums of squared differences, so the
+ * difference between fragment b under a transformation T and fragment a
+ * equals the difference between fragment a under the inverse of T and
+ * fragment b. Scoring a pair of fragments under every transformation scores
+ * it for both directions, and only the fragments of the first image are
+ * transformed. The lower bound of BlockCorrelationEngine is symmetric as
+ * well, and a pair is scored when either direction still needs it.
+ *
+ * The results are the same as an exhaustive search in each direction.
+ */
+public class MutualCorrelationEngine {
+
+  private MutualCorrelationEngine() {
+  }
+
+  /**
+   * Returns the best match for every fragment of both images.
+   *
+   * @param sourceFragments The fragments of the first image.
+   * @param destinationFragments The fragments of the second image.
+   * @param spatialTerms The spatial term of the correspondence value, indexed by
+   *                     the row and column distances between two fragments.
+   * @param deadline Checked before the pairs of every fragment are scored.
+   * @return The best matches of the fragments of the second image among the
+   *         fragments of the first image, and the best matches of the
+   *         fragments of the first image among the fragments of the second
+   *         image, each indexed like the grid.
+   */
+  public static FragmentMatch[][][] findMatches(
+      GrayPlane[][] sourceFragments,
+      GrayPlane[][] destinationFragments,
+      double[][] spatialTerms,
+      Deadline deadline) {
+    OrthonormalTransformation[] transformations = OrthonormalTransformation.values();
+    int size = sourceFragments.length;
+    int fragments = size * size;
+    int pixels = sourceFragments[0][0].getWidth() * sourceFragments[0][0].getHeight();
+    // Transformed source fragments, ordered by fragment then transformation
+    int[] sources = new int[fragments * transformations.length * pixels];
+    int[] destinations = new int[fragments * pixels];
+    long[] sourceSquareSums = new long[fragments];
+    long[] destinationSquareSums = new long[fragments];
+    double[] sourceSums = new double[fragments];
+    double[] sourceNorms = new double[fragments];
+    double[] destinationSums = new double[fragments];
+    double[] destinationNorms = new double[fragments];
+    // The ordinal of the inverse of every transformation
+    int[] inverses = new int[transformations.length];
+    // The best correspondence value and rank so far of every fragment of the
+    // second image, then of every fragment of the first image
+    Best forward = new Best(fragments);
+    Best reverse = new Best(fragments);
+    // The pairs of source and destination fragment scored so far
+    BitSet scored = new BitSet(fragments * fragments);
+
+    for (OrthonormalTransformation transformation : transformations) {
+      inverses[transformation.ordinal()] = transformation.inverse().ordinal();
+    }
+
+    for (int x = 0; x < size; x++) {
+      for (int y = 0; y < size; y++) {
+        int fragment = x * size + y;
+        GrayPlane[] transformedFragments = DihedralTransformEngine.transformAll(sourceFragments[x][y]);
+
+        for (OrthonormalTransformation transformation : transformations) {
+          BlockCorrelationEngine.pack(
+              transformedFragments[transformation.ordinal()],
+              sources,
+              (fragment * transformations.length + transformation.ordinal()) * pixels
+          );
+        }
+        BlockCorrelationEngine.pack(destinationFragments[x][y], destinations, fragment * pixels);
+        sourceSquareSums[fragment] = sourceFragments[x][y].getSquareSum();
+        destinationSquareSums[fragment] = destinationFragments[x][y].getSquareSum();
+        sourceSums[fragment] = sourceFragments[x][y].getSum();
+        destinationSums[fragment] = destinationFragments[x][y].getSum();
+        sourceNorms[fragment] = BlockCorrelationEngine.getCentredNorm(sourceSums[fragment], sourceSquareSums[fragment], pixels);
+        destinationNorms[fragment] = BlockCorrelationEngine.getCentredNorm(destinationSums[fragment],
+            destinationSquareSums[fragment], pixels);
+      }
+    }
+
+    // Find the most promising pair of every fragment in both directions and
+    // score them first, so the bounds are tight from the start
+    int[] sourceSeeds = new int[fragments];
+    int[] destinationSeeds = new int[fragments];
+    double[] sourceSeedBounds = new double[fragments];
+    double[] destinationSeedBounds = new double[fragments];
+
+    // The lower bounds of every source fragment against one destination fragment
+    double[] lowerBounds = new double[fragments];
+
+    Arrays.fill(sourceSeedBounds, Double.POSITIVE_INFINITY);
+    Arrays.fill(destinationSeedBounds, Double.POSITIVE_INFINITY);
+    for (int destination = 0; destination < fragments; destination++) {
+      getLowerBounds(destination, size, pixels, sourceSums, sourceNorms, destinationSums, destinationNorms,
+          spatialTerms, lowerBounds);
+
+      for (int source = 0; source < fragments; source++) {
+        double lowerBound = lowerBounds[source];
+
+        if (lowerBound < sourceSeedBounds[destination]) {
+          sourceSeeds[destination] = source;
+          sourceSeedBounds[destination] = lowerBound;
+        }
+        if (lowerBound < destinationSeedBounds[source]) {
+          destinationSeeds[source] = destination;
+          destinationSeedBounds[source] = lowerBound;
+        }
+      }
+    }
+    for (int fragment = 0; fragment < fragments; fragment++) {
+      deadline.check();
+      scorePair(sourceSeeds[fragment], fragment, size, pixels, sources, destinations, sourceSquareSums,
+          destinationSquareSums, spatialTerms, inverses, forward, reverse, scored);
+      scorePair(fragment, destinationSeeds[fragment], size, pixels, sources, destinations, sourceSquareSums,
+          destinationSquareSums, spatialTerms, inverses, forward, reverse, scored);
+    }
+
+    // Score every other pair whose lower bound can match the best value of
+    // either direction. The best values only decrease, so a pair skipped here
+    // can never match either of them.
+    for (int destination = 0; destination < fragments; destination++) {
+      deadline.check();
+      getLowerBounds(destination, size, pixels, sourceSums, sourceNorms, destinationSums, destinationNorms,
+          spatialTerms, lowerBounds);
+
+      for (int source = 0; source < fragments; source++) {
+        double lowerBound = lowerBounds[source];
+
+        if (lowerBound <= forward.correspondences[destination] + BlockCorrelationEngine.BOUND_MARGIN
+            || lowerBound <= reverse.correspondences[source] + BlockCorrelationEngine.BOUND_MARGIN)
+          scorePair(source, destination, size, pixels, sources, destinations, sourceSquareSums,
+              destinationSquareSums, spatialTerms, inverses, forward, reverse, scored);
+      }
+    }
+
+    return new FragmentMatch[][][] {forward.getMatches(size), reverse.getMatches(size)};
+  }
+
+  /**
+   * Computes the lower bound of BlockCorrelationEngine on the correspondence
+   * value of every fragment of the first image with a fragment of the second
+   * image under every transformation. The bound holds in either direction.
+   *
+   * @param destination The index of the fragment of the second image.
+   * @param lowerBounds Receives the lower bounds, indexed by the fragment of
+   *                    the first image.
+   */
+  private static void getLowerBounds(int destination, int size, int pixels, double[] sourceSums,
+                                     double[] sourceNorms, double[] destinationSums, double[] destinationNorms,
+                                     double[][] spatialTerms, double[] lowerBounds) {
+    int i = destination / size;
+    int j = destination % size;
+    double destinationSum = destinationSums[destination];
+    double destinationNorm = destinationNorms[destination];
+
+    for (int x = 0; x < size; x++) {
+      double[] rowSpatialTerms = spatialTerms[Math.abs(x - i)];
+
+      for (int y = 0; y < size; y++) {
+        int source = x * size + y;
+        double sumDifference = sourceSums[source] - destinationSum;
+        double normDifference = sourceNorms[source] - destinationNorm;
+
+        lowerBounds[source] = sumDifference * sumDifference / pixels + normDifference * normDifference
+            + rowSpatialTerms[Math.abs(y - j)];
+      }
+    }
+  }
+
+  /**
+   * Scores every transformation of a fragment of the first image against a
+   * fragment of the second image, unless the pair was scored before, and
+   * offers each value to the best match of the second fragment and, under the
+   * inverse transformation, to the best match of the first fragment.
+   *
+   * @param source The index of the fragment of the first image.
+   * @param destination The index of the fragment of the second image.
+   */
+  private static void scorePair(int source, int destination, int size, int pixels, int[] sources,
+                                int[] destinations, long[] sourceSquareSums, long[] destinationSquareSums,
+                                double[][] spatialTerms, int[] inverses, Best forward, Best reverse, BitSet scored) {
+    int pair = destination * size * size + source;
+
+    if (scored.get(pair))
+      return;
+    scored.set(pair);
+
+    int transformations = inverses.length;
+    double spatialTerm = spatialTerms[Math.abs(source / size - destination / size)]
+        [Math.abs(source % size - destination % size)];
+    long squareSums = sourceSquareSums[source] + destinationSquareSums[destination];
+
+    for (int t = 0; t < transformations; t++) {
+      long crossTerm = PixelKernels.getCrossTerm(
+          sources,
+          (source * transformations + t) * pixels,
+          destinations,
+          destination * pixels,
+          pixels
+      );
+      double correspondence = 1 * (double) (squareSums - 2 * crossTerm) + spatialTerm;
+
+      forward.offer(destination, source * transformations + t, correspondence);
+      reverse.offer(source, destination * transformations + inverses[t], correspondence);
+    }
+  }
+
+  /**
+   * The best correspondence value and rank found so far for every fragment of
+   * one direction. Equal values go to the lower rank, the pair an exhaustive
+   * search visits first.
+   */
+  private static final class Best {
+
+    private final double[] correspondences;
+    private final int[] ranks;
+
+    private Best(int fragments) {
+      correspondences = new double[fragments];
+      ranks = new int[fragments];
+      Arrays.fill(correspondences, Double.POSITIVE_INFINITY);
+      Arrays.fill(ranks, -1);
+    }
+
+    private void offer(int fragment, int rank, double correspondence) {
+      if (ranks[fragment] < 0 || correspondence < correspondences[fragment]
+          || (correspondence == correspondences[fragment] && rank < ranks[fragment])) {
+        correspondences[fragment] = correspondence;
+        ranks[fragment] = rank;
+      }
+    }
+
+    private FragmentMatch[][] getMatches(int size) {
+      OrthonormalTransformation[] transformations = OrthonormalTransformation.values();
+      FragmentMatch[][] matches = new FragmentMatch[size][size];
+
+      for (int fragment = 0; fragment < ranks.length; fragment++) {
+        int source = ranks[fragment] / transformations.length;
+
+        matches[fragment / size][fragment % size] = new FragmentMatch(
+            new Pair<>(source / size, source % size),
+            transformations[ranks[fragment] % transformations.length],
+            ranks[fragment],
+            correspondences[fragment]
+        );
+      }
+
+      return matches;
+    }
+  }
+}
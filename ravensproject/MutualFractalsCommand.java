@@ -1,34 +1,214 @@
 package ravensproject;
 
-import java.awt.image.BufferedImage;
-import java.util.HashSet;
 import java.util.Set;
 
 public class MutualFractalsCommand implements Runnable {
 
-  private BufferedImage source;
-  private BufferedImage destination;
+  private GrayPlane source;
+  private GrayPlane destination;
   private int abstractionLevel;
-  private Set<FractalRepresentation> fractals;
+  // Whether to encode on a quadtree with abstractionLevel as its finest grid
+  private boolean adaptive;
+  // Seeds each level with the matches of the previous level, or null
+  private CoarseToFineEncoder encoder;
+  // The encodings of the problem and the names of the two figures, or null
+  private FractalEncodingCache cache;
+  private String sourceName;
+  private String destinationName;
+  // Stops the encodings this command starts in the cache
+  private Cancellation cancellation;
+  // The fractal codes of both directions, packed by FractalCode
+  private LongHashSet codes;
   
   public MutualFractalsCommand(
-      BufferedImage source, 
-      BufferedImage destination, 
+      GrayPlane source, 
+      GrayPlane destination, 
       int abstractionLevel) {
+    this(source, destination, abstractionLevel, false);
+  }
+
+  public MutualFractalsCommand(
+      GrayPlane source,
+      GrayPlane destination,
+      int abstractionLevel,
+      boolean adaptive) {
+    this(source, destination, abstractionLevel, adaptive, null);
+  }
+
+  public MutualFractalsCommand(
+      GrayPlane source,
+      GrayPlane destination,
+      int abstractionLevel,
+      boolean adaptive,
+      CoarseToFineEncoder encoder) {
     this.source = source;
     this.destination = destination;
     this.abstractionLevel = abstractionLevel;
-    this.fractals = new HashSet<>();
+    this.adaptive = adaptive;
+    this.encoder = encoder;
+    this.cancellation = Cancellation.NONE;
+    this.codes = new LongHashSet();
+  }
+
+  /**
+   * Creates a command that takes the encodings of two figures of a problem
+   * from the problem's encoding cache.
+   *
+   * @param cache The encoding cache of the problem.
+   * @param source The name of the source figure.
+   * @param destination The name of the destination figure.
+   * @param abstractionLevel
+   */
+  public MutualFractalsCommand(
+      FractalEncodingCache cache,
+      String source,
+      String destination,
+      int abstractionLevel) {
+    this(cache, source, destination, abstractionLevel, Cancellation.NONE);
+  }
+
+  /**
+   * Creates a command that takes the encodings of two figures of a problem
+   * from the problem's encoding cache, and whose encodings give up once a
+   * cancellation has been cancelled.
+   *
+   * @param cache The encoding cache of the problem.
+   * @param source The name of the source figure.
+   * @param destination The name of the destination figure.
+   * @param abstractionLevel
+   * @param cancellation The cancellation of the batch the command runs in.
+   */
+  public MutualFractalsCommand(
+      FractalEncodingCache cache,
+      String source,
+      String destination,
+      int abstractionLevel,
+      Cancellation cancellation) {
+    this(cache.getImage(source), cache.getImage(destination), abstractionLevel);
+    this.cache = cache;
+    this.sourceName = source;
+    this.destinationName = destination;
+    this.cancellation = cancellation;
   }
   
+  public LongHashSet getCodes() {
+    return codes;
+  }
+
+  /**
+   * Returns the fractal codes of both directions as fractal representations.
+   *
+   * @return A new set of FractalRepresentation objects.
+   */
   public Set<FractalRepresentation> getFractals() {
-    return fractals;
+    return FractalCode.decodeAll(codes);
+  }
+
+  /**
+   * Returns the features of the fractal codes of both directions. Only
+   * commands that take their encodings from an encoding cache have features,
+   * numbered by the interner of the cache.
+   *
+   * @return A new set of features.
+   * @throws IllegalStateException If the command has no encoding cache.
+   */
+  public FeatureSet getFeatures() {
+    if (cache == null)
+      throw new IllegalStateException("Features are only kept by an encoding cache");
+
+    FeatureSet features = new FeatureSet(cache.getFeatures(sourceName, destinationName, abstractionLevel));
+
+    features.addAll(cache.getFeatures(destinationName, sourceName, abstractionLevel));
+
+    return features;
   }
 
   @Override
   public void run() {
-    fractals.addAll(new FractalsCommand(source, destination, abstractionLevel).execute());
-    fractals.addAll(new FractalsCommand(destination, source, abstractionLevel).execute());
+    if (cache != null) {
+      codes.addAll(cache.getCodes(sourceName, destinationName, abstractionLevel, cancellation));
+      codes.addAll(cache.getCodes(destinationName, sourceName, abstractionLevel, cancellation));
+    }
+    else {
+      for (LongHashSet directionCodes : encodeMutual(source, destination, abstractionLevel, adaptive, encoder,
+          Deadline.NONE.withCancellation(cancellation))) {
+        codes.addAll(directionCodes);
+      }
+    }
+  }
+
+  /**
+   * Returns the fractal codes of a destination image in the fragments of a
+   * source image and of the source image in the fragments of the destination
+   * image. Without a quadtree or seeding both directions are found together
+   * by FractalsCommand.executeMutualCodes.
+   *
+   * @param source
+   * @param destination
+   * @param abstractionLevel
+   * @param adaptive Whether to encode on a quadtree with abstractionLevel as
+   *                 its finest grid.
+   * @param encoder Seeds each level with the matches of the previous level,
+   *                or null.
+   * @param deadline The time by which the encodings give up.
+   * @return The packed fractal codes of the destination image, then those of
+   *         the source image.
+   */
+  public static LongHashSet[] encodeMutual(
+      GrayPlane source,
+      GrayPlane destination,
+      int abstractionLevel,
+      boolean adaptive,
+      CoarseToFineEncoder encoder,
+      Deadline deadline) {
+    if (adaptive || encoder != null) {
+      return new LongHashSet[] {
+          encode(source, destination, abstractionLevel, adaptive, encoder, deadline),
+          encode(destination, source, abstractionLevel, adaptive, encoder, deadline)
+      };
+    }
+
+    FractalsCommand command = new FractalsCommand(source, destination, abstractionLevel);
+
+    command.setDeadline(deadline);
+    return command.executeMutualCodes();
+  }
+
+  /**
+   * Returns the fractal codes of a destination image in the fragments of a
+   * source image.
+   *
+   * @param source
+   * @param destination
+   * @param abstractionLevel
+   * @param adaptive Whether to encode on a quadtree with abstractionLevel as
+   *                 its finest grid.
+   * @param encoder Seeds each level with the matches of the previous level,
+   *                or null. Ignored on a quadtree, which is not seeded.
+   * @param deadline The time by which the encoding gives up.
+   * @return The set of packed fractal codes.
+   */
+  public static LongHashSet encode(
+      GrayPlane source,
+      GrayPlane destination,
+      int abstractionLevel,
+      boolean adaptive,
+      CoarseToFineEncoder encoder,
+      Deadline deadline) {
+    if (adaptive) {
+      QuadtreeFractalsCommand command = new QuadtreeFractalsCommand(source, destination, abstractionLevel);
+
+      command.setDeadline(deadline);
+      return command.executeCodes();
+    }
+
+    if (encoder != null)
+      return encoder.encode(source, destination, abstractionLevel, deadline);
+
+    FractalsCommand command = new FractalsCommand(source, destination, abstractionLevel);
+
+    command.setDeadline(deadline);
+    return command.executeCodes();
   }
 
 }
@@ -0,0 +1,96 @@
+package ravensproject;
+
+/**
+ * The eight orthonormal transformations of a square image fragment, the
+ * elements of the dihedral group D4. The constants are declared in the order
+ * the fractal encoder compares them, which also decides ties between equally
+ * good transformations.
+ */
+public enum OrthonormalTransformation {
+
+  // Identity
+  IDENTITY("identity"),
+  // Horizontal flip
+  HORIZONTAL_FLIP("hFlip"),
+  // Vertical flip
+  VERTICAL_FLIP("vFlip"),
+  // Rotate 90 degrees
+  ROTATE_90("r90"),
+  // Rotate 180 degrees
+  ROTATE_180("r180"),
+  // Rotate 270 degrees
+  ROTATE_270("r270"),
+  // Reflect ynx
+  REFLECT_YNX("reflYNX"),
+  // Reflect yx
+  REFLECT_YX("reflYX");
+
+  private final String name;
+
+  OrthonormalTransformation(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Returns the short name of the transformation, as used in fractal features.
+   *
+   * @return The short name of the transformation.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the transformation that undoes this transformation.
+   *
+   * @return The inverse transformation.
+   */
+  public OrthonormalTransformation inverse() {
+    switch (this) {
+      case ROTATE_90:
+        return ROTATE_270;
+      case ROTATE_270:
+        return ROTATE_90;
+      default:
+        // Flips, reflections and the half turn are their own inverses
+        return this;
+    }
+  }
+
+  /**
+   * Returns the index of the pixel in the source fragment that lands on pixel
+   * (x, y) of the transformed fragment. Fragments are stored row by row.
+   *
+   * @param x The column of the transformed pixel.
+   * @param y The row of the transformed pixel.
+   * @param size The width and height of the fragment in pixels.
+   * @return The row-major index of the source pixel.
+   */
+  public int getSourceIndex(int x, int y, int size) {
+    int last = size - 1;
+
+    switch (this) {
+      case HORIZONTAL_FLIP:
+        return y * size + (last - x);
+      case VERTICAL_FLIP:
+        return (last - y) * size + x;
+      case ROTATE_90:
+        return (last - x) * size + y;
+      case ROTATE_180:
+        return (last - y) * size + (last - x);
+      case ROTATE_270:
+        return x * size + (last - y);
+      case REFLECT_YNX:
+        return (last - x) * size + (last - y);
+      case REFLECT_YX:
+        return x * size + y;
+      default:
+        return y * size + x;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
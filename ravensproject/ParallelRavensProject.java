@@ -0,0 +1,172 @@
+package ravensproject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Solves the problem sets like RavensProject, but solves several problems at
+ * once. The problems of every set are submitted in order to a pool with a
+ * fixed number of solver threads, the window, and the results are written in
+ * the order of the problems as each one finishes, so ProblemResults.csv and
+ * SetResults.csv are the same as those of RavensProject. A problem that
+ * finishes early waits for the problems before it to be written.
+ *
+ * All the problems share one Agent, whose encodings run on its scheduler. The
+ * window defaults to the parallelism of the agent and can be set with
+ * -Dravensproject.problemWindow=<count>. When the agent uses virtual threads
+ * every problem runs on a virtual thread of its own instead, and a semaphore
+ * with one permit per problem of the window bounds the problems solved at
+ * once. Without virtual threads in the runtime the solver threads are used.
+ */
+public class ParallelRavensProject {
+
+  /**
+   * The main method of the parallel runner.
+   */
+  public static void main(String[] args) {
+    ArrayList<ProblemSet> sets = new ArrayList<ProblemSet>();
+    Scanner r = null;
+
+    try {
+      r = new Scanner(new File("Problems" + File.separator + "ProblemSetList.txt"));
+    }
+    catch (Exception ex) {
+      System.out.println(ex);
+    }
+
+    while (r.hasNext()) {
+      String line = r.nextLine();
+      sets.add(new ProblemSet(line));
+    }
+
+    Agent agent = new Agent();
+    int window = Math.max(1, Integer.getInteger("ravensproject.problemWindow", agent.parallelism));
+    ExecutorService solvers = agent.virtualThreads ? EncodingScheduler.createVirtualExecutor() : null;
+    // Bounds the problems solved on virtual threads at once, or null
+    final Semaphore permits = solvers == null ? null : new Semaphore(window);
+
+    if (solvers == null) {
+      solvers = Executors.newFixedThreadPool(window, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "solver");
+
+          thread.setDaemon(true);
+
+          return thread;
+        }
+      });
+    }
+
+    try {
+      PrintWriter results = new PrintWriter("ProblemResults.csv");
+      PrintWriter setResults = new PrintWriter("SetResults.csv");
+      List<List<Future<?>>> answers = new ArrayList<>();
+
+      // Submit every problem before writing any result, so the solvers never
+      // wait on the writer
+      for (ProblemSet set : sets) {
+        List<Future<?>> setAnswers = new ArrayList<>();
+
+        for (final RavensProblem problem : set.getProblems()) {
+          setAnswers.add(solvers.submit(() -> solve(agent, problem, permits)));
+        }
+        answers.add(setAnswers);
+      }
+
+      results.println("Problem,Agent's Answer,Correct?,Correct Answer");
+      setResults.println("Set,Correct,Incorrect,Skipped");
+      for (int s = 0; s < sets.size(); s++) {
+        ProblemSet set = sets.get(s);
+
+        for (int p = 0; p < set.getProblems().size(); p++) {
+          RavensProblem problem = set.getProblems().get(p);
+
+          try {
+            awaitAnswer(answers.get(s).get(p));
+            results.println(problem.getName() + "," + problem.getGivenAnswer() + "," + problem.getCorrect() + ","
+                + problem.checkAnswer(0));
+          }
+          catch (Exception ex) {
+            System.out.println("Error encountered in " + problem.getName());
+            System.out.println(ex);
+            ex.printStackTrace(System.out);
+            results.println(problem.getName() + "," + problem.getGivenAnswer() + ",Error," + problem.checkAnswer(0));
+          }
+        }
+        // Every problem of the set has finished, so the totals are final
+        setResults.println(set.getName() + "," + set.getTotal("Correct") + "," + set.getTotal("Incorrect") + ","
+            + set.getTotal("Skipped"));
+      }
+      results.close();
+      setResults.close();
+    }
+    catch (IOException ex) {
+      System.out.println("Unable to create results file:");
+      System.out.println(ex);
+    }
+    finally {
+      solvers.shutdownNow();
+    }
+  }
+
+  /**
+   * Solves a problem and records the answer, taking a permit of the window
+   * first when one is given.
+   *
+   * @param agent
+   * @param problem
+   * @param permits The permits of the window, or null.
+   */
+  private static void solve(Agent agent, RavensProblem problem, Semaphore permits) {
+    if (permits == null) {
+      problem.setAnswerReceived(agent.Solve(problem));
+      return;
+    }
+
+    permits.acquireUninterruptibly();
+    try {
+      problem.setAnswerReceived(agent.Solve(problem));
+    }
+    finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Waits for a problem to be solved. An exception thrown by the agent is
+   * rethrown as it is, like it would be when solving the problem directly.
+   *
+   * @param answer
+   * @throws Exception The exception the agent threw.
+   */
+  private static void awaitAnswer(Future<?> answer) throws Exception {
+    try {
+      answer.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a problem", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof Error)
+        throw (Error) cause;
+      if (cause instanceof Exception)
+        throw (Exception) cause;
+
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package ravensproject;
+
+/**
+ * The inner pixel loops of the fractal encoder. Each row is read straight
+ * from the pixel array and summed in an int, and the row totals in a long.
+ * An int cannot overflow for rows of up to 33,000 pixels, so every kernel
+ * returns the exact sum.
+ */
+public class PixelKernels {
+
+  // The number of 8-bit products that can be summed in an int
+  private static final int BLOCK = 32768;
+
+  private PixelKernels() {
+  }
+
+  /**
+   * Returns the sum of the pixel values of a plane.
+   *
+   * @param plane
+   * @return The sum of the pixel values.
+   */
+  public static long getSum(GrayPlane plane) {
+    byte[] pixels = plane.getPixels();
+    int width = plane.getWidth();
+    long sum = 0;
+
+    for (int y = 0; y < plane.getHeight(); y++) {
+      int row = plane.getOffset() + y * plane.getStride();
+      int rowSum = 0;
+
+      for (int x = 0; x < width; x++) {
+        rowSum += pixels[row + x] & 0xFF;
+      }
+
+      sum += rowSum;
+    }
+
+    return sum;
+  }
+
+  /**
+   * Returns the sum of the squared pixel values of a plane.
+   *
+   * @param plane
+   * @return The sum of the squared pixel values.
+   */
+  public static long getSquareSum(GrayPlane plane) {
+    byte[] pixels = plane.getPixels();
+    int width = plane.getWidth();
+    long sum = 0;
+
+    for (int y = 0; y < plane.getHeight(); y++) {
+      int row = plane.getOffset() + y * plane.getStride();
+      int rowSum = 0;
+
+      for (int x = 0; x < width; x++) {
+        int pixel = pixels[row + x] & 0xFF;
+        rowSum += pixel * pixel;
+      }
+
+      sum += rowSum;
+    }
+
+    return sum;
+  }
+
+  /**
+   * Returns the sum of the products of corresponding pixels of two planes of
+   * the same size.
+   *
+   * @param a
+   * @param b
+   * @return The sum of products.
+   */
+  public static long getCrossTerm(GrayPlane a, GrayPlane b) {
+    byte[] pixelsA = a.getPixels();
+    byte[] pixelsB = b.getPixels();
+    int width = a.getWidth();
+    long sum = 0;
+
+    for (int y = 0; y < a.getHeight(); y++) {
+      int rowA = a.getOffset() + y * a.getStride();
+      int rowB = b.getOffset() + y * b.getStride();
+      int rowSum = 0;
+
+      for (int x = 0; x < width; x++) {
+        rowSum += (pixelsA[rowA + x] & 0xFF) * (pixelsB[rowB + x] & 0xFF);
+      }
+
+      sum += rowSum;
+    }
+
+    return sum;
+  }
+
+  /**
+   * Returns the sum of the products of two runs of packed pixel values.
+   *
+   * @param a
+   * @param offsetA The index of the first value in a.
+   * @param b
+   * @param offsetB The index of the first value in b.
+   * @param length The number of values in each run.
+   * @return The sum of products.
+   */
+  public static long getCrossTerm(int[] a, int offsetA, int[] b, int offsetB, int length) {
+    long sum = 0;
+
+    for (int start = 0; start < length; start += BLOCK) {
+      int end = Math.min(length, start + BLOCK);
+      int blockSum = 0;
+
+      for (int k = start; k < end; k++) {
+        blockSum += a[offsetA + k] * b[offsetB + k];
+      }
+
+      sum += blockSum;
+    }
+
+    return sum;
+  }
+
+  /**
+   * Returns the sum of squared differences of corresponding pixels of two
+   * planes of the same size, or a partial sum greater than the bound as soon
+   * as the sum is known to exceed the bound.
+   *
+   * @param a
+   * @param b
+   * @param bound The value beyond which the exact sum is not needed.
+   * @return The sum of squared differences, or a partial sum above the bound.
+   */
+  public static long getSquaredDifference(GrayPlane a, GrayPlane b, double bound) {
+    byte[] pixelsA = a.getPixels();
+    byte[] pixelsB = b.getPixels();
+    int width = a.getWidth();
+    long sum = 0;
+
+    for (int y = 0; y < a.getHeight(); y++) {
+      int rowA = a.getOffset() + y * a.getStride();
+      int rowB = b.getOffset() + y * b.getStride();
+      int rowSum = 0;
+
+      for (int x = 0; x < width; x++) {
+        int difference = (pixelsB[rowB + x] & 0xFF) - (pixelsA[rowA + x] & 0xFF);
+        rowSum += difference * difference;
+      }
+
+      sum += rowSum;
+      // Stop once the remaining rows can only make the sum larger
+      if (sum > bound)
+        break;
+    }
+
+    return sum;
+  }
+}
@@ -0,0 +1,47 @@
+package ravensproject;
+
+/**
+ * The Tversky ratio of a fixed reference feature set to any number of
+ * candidate feature sets. The reference is copied and counted once when the
+ * similarity is prepared, so scoring a candidate only counts the candidate
+ * and its intersection with the reference: both differences follow from the
+ * set sizes and the size of the intersection.
+ *
+ * The results are the same as FeatureSet.getTverskyRatio with the reference
+ * as the first set. A prepared similarity is immutable, and candidates must
+ * be numbered by the interner of the reference.
+ */
+public class PreparedSimilarity {
+
+  private final FeatureSet reference;
+  private final int referenceSize;
+  private final double alpha;
+  private final double beta;
+
+  /**
+   * Prepares the similarity of candidates to a reference feature set.
+   *
+   * @param reference The reference features, copied so later changes to the
+   *                  set do not affect the similarity.
+   * @param alpha The weight of the features only the reference has.
+   * @param beta The weight of the features only a candidate has.
+   */
+  public PreparedSimilarity(FeatureSet reference, double alpha, double beta) {
+    this.reference = new FeatureSet(reference);
+    this.referenceSize = reference.size();
+    this.alpha = alpha;
+    this.beta = beta;
+  }
+
+  /**
+   * Returns the Tversky ratio of the reference to a candidate.
+   *
+   * @param candidate
+   * @return The Tversky ratio of the reference to the candidate.
+   */
+  public double getSimilarity(FeatureSet candidate) {
+    int common = reference.getIntersectionSize(candidate);
+
+    return common / (common + alpha * (referenceSize - common) + beta * (candidate.size() - common));
+  }
+}
@@ -0,0 +1,178 @@
+package ravensproject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes a destination image in the fragments of a source image on an
+ * adaptive quadtree instead of a uniform grid. Encoding starts with the whole
+ * image as a single fragment, and a fragment is split into four quarters only
+ * when its best match leaves a root mean square error per pixel above the
+ * split threshold. Blank and simple regions stay coarse and the effort goes
+ * to the regions that carry shape detail.
+ *
+ * Every fragment is matched against the source fragments of its own size, so
+ * a fragment at abstraction level n is encoded exactly as FractalsCommand
+ * encodes it at level n. The fractal representations carry the size of their
+ * fragment as region size and their origin in the grid of that size.
+ */
+public class QuadtreeFractalsCommand {
+
+  // The root mean square error per pixel above which a fragment is split
+  public static final double DEFAULT_SPLIT_THRESHOLD = 16;
+
+  private GrayPlane source;
+  private GrayPlane destination;
+  private int maximumLevel;
+  private double splitThreshold;
+  // Abstraction level as key and the fragments of that level as value
+  private Map<Integer, QuadtreeLevel> levels;
+  // The time by which the encoding gives up
+  private Deadline deadline;
+
+  public QuadtreeFractalsCommand(GrayPlane source, GrayPlane destination, int maximumLevel) {
+    this(source, destination, maximumLevel, DEFAULT_SPLIT_THRESHOLD);
+  }
+
+  public QuadtreeFractalsCommand(GrayPlane source, GrayPlane destination, int maximumLevel, double splitThreshold) {
+    this.source = source;
+    this.destination = destination;
+    this.maximumLevel = maximumLevel;
+    this.splitThreshold = splitThreshold;
+    this.deadline = Deadline.NONE;
+  }
+
+  /**
+   * Sets the time by which an encoding gives up, checked before every
+   * fragment is matched.
+   *
+   * @param deadline
+   */
+  public void setDeadline(Deadline deadline) {
+    this.deadline = deadline;
+  }
+
+  public Set<FractalRepresentation> execute() {
+    return FractalCode.decodeAll(executeCodes());
+  }
+
+  /**
+   * Encodes the destination image on the quadtree and returns the fractal
+   * codes packed by FractalCode.
+   *
+   * @return The set of packed fractal codes.
+   */
+  public LongHashSet executeCodes() {
+    LongHashSet codes = new LongHashSet();
+
+    levels = new HashMap<>();
+    encode(1, 0, 0, codes);
+    levels = null;
+
+    return codes;
+  }
+
+  /**
+   * Encodes one destination fragment, or its four quarters when the fragment
+   * is matched poorly and can be split.
+   *
+   * @param level The abstraction level of the fragment.
+   * @param i The row of the fragment in the grid of its level.
+   * @param j The column of the fragment in the grid of its level.
+   * @param codes The set receiving the fractal codes.
+   */
+  private void encode(int level, int i, int j, LongHashSet codes) {
+    QuadtreeLevel fragments = getLevel(level);
+    FractalsCommand command = fragments.command;
+    GrayPlane destinationFragment = fragments.destinationFragments[i][j];
+    int destinationFragmentNumber = command.getFragmentNumber(i, j);
+
+    deadline.check();
+    FragmentMatch match = command.findBoundedMatch(
+        fragments.sourceFragments,
+        fragments.sourceFragmentTransformations,
+        destinationFragment,
+        destinationFragmentNumber
+    );
+    // The photometric part of the correspondence value is the sum of squared
+    // differences of the pixels
+    double error = match.getCorrespondence()
+        - command.getSpatialTerm(match.getRank() / OrthonormalTransformation.values().length, destinationFragmentNumber);
+    int pixels = destinationFragment.getWidth() * destinationFragment.getHeight();
+
+    if (Math.sqrt(Math.max(0, error) / pixels) > splitThreshold && canSplit(level)) {
+      for (int x = 0; x < 2; x++) {
+        for (int y = 0; y < 2; y++) {
+          encode(level * 2, i * 2 + x, j * 2 + y, codes);
+        }
+      }
+      return;
+    }
+
+    int sourceRow = match.getSourceFragmentOrigin().getElement0();
+    int sourceColumn = match.getSourceFragmentOrigin().getElement1();
+    codes.add(FractalCode.encode(
+        sourceRow,
+        sourceColumn,
+        i,
+        j,
+        match.getTransformation(),
+        destinationFragment.getHeight(),
+        command.getColorContraction(fragments.sourceFragments[sourceRow][sourceColumn], destinationFragment)
+    ));
+  }
+
+  /**
+   * Returns true when the fragments of a level can be split into quarters
+   * within the maximum level.
+   *
+   * @param level
+   * @return True if the fragments of the level can be split.
+   */
+  private boolean canSplit(int level) {
+    int childLevel = level * 2;
+
+    return childLevel <= maximumLevel
+        && destination.getWidth() % childLevel == 0
+        && destination.getHeight() % childLevel == 0;
+  }
+
+  /**
+   * Returns the fragments of a level, partitioning both images and
+   * transforming the source fragments the first time the level is reached.
+   *
+   * @param level
+   * @return The fragments of the level.
+   */
+  private QuadtreeLevel getLevel(int level) {
+    QuadtreeLevel fragments = levels.get(level);
+
+    if (fragments == null) {
+      fragments = new QuadtreeLevel(new FractalsCommand(source, destination, level), level);
+      levels.put(level, fragments);
+    }
+
+    return fragments;
+  }
+
+  /**
+   * The partitioned images and transformed source fragments of one level.
+   */
+  private class QuadtreeLevel {
+
+    private final FractalsCommand command;
+    private final GrayPlane[][] sourceFragments;
+    private final GrayPlane[][] destinationFragments;
+    // The transformed images of each source fragment, indexed by fragment
+    // number and the ordinal of the transformation
+    private final GrayPlane[][] sourceFragmentTransformations;
+
+    private QuadtreeLevel(FractalsCommand command, int level) {
+      this.command = command;
+      this.sourceFragments = command.partitionImage(source, level);
+      this.destinationFragments = command.partitionImage(destination, level);
+      this.sourceFragmentTransformations = command.transformSourceFragments(sourceFragments);
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package ravensproject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The relationships of a square matrix of figures and the pairs of figures
+ * they are made of, derived from the figure names of a problem. The letters
+ * name the cells of the matrix in row-major order, the last cell is blank,
+ * and the digits name the answer figures that may fill it. A 2x2 matrix has
+ * the cells A to C, a 3x3 matrix the cells A to H, a 4x4 matrix the cells A
+ * to O and so on.
+ *
+ * A relationship holds every pair of figures of one row or column. The
+ * relationships of the complete rows and columns are compared with those of
+ * the last row and column as each answer completes them. Relationships refer
+ * to their pairs by index and every pair is listed once, however many
+ * relationships share it, so each pair is encoded once per abstraction
+ * level. The pairs of the last row and column without the blank cell, for
+ * instance, are shared by every answer.
+ */
+public class RelationGraph {
+
+  // The number of rows and columns of the matrix
+  private final int size;
+  // Every distinct pair of figures, in the order they were first used
+  private final List<Pair<String, String>> pairs = new ArrayList<>();
+  // Pair of figures as key and its index in pairs as value
+  private final Map<Pair<String, String>, Integer> pairIndexes = new HashMap<>();
+  // The pairs of every complete row and of every complete column
+  private final List<int[]> rows = new ArrayList<>();
+  private final List<int[]> columns = new ArrayList<>();
+  // Answer figure name as key and the pairs of the last row or last column
+  // it completes as value, in ascending order of the answers
+  private final Map<String, int[]> answerRows = new LinkedHashMap<>();
+  private final Map<String, int[]> answerColumns = new LinkedHashMap<>();
+
+  /**
+   * Derives the relationships of a matrix from the names of its figures.
+   *
+   * @param figureNames The names of the cells and of the answer figures.
+   * @throws IllegalArgumentException If the cells do not fill a square
+   *                                  matrix with one blank cell.
+   */
+  public RelationGraph(Collection<String> figureNames) {
+    List<String> cells = new ArrayList<>();
+    List<String> answers = new ArrayList<>();
+
+    for (String name : figureNames) {
+      if (Character.isDigit(name.charAt(0)))
+        answers.add(name);
+      else
+        cells.add(name);
+    }
+    Collections.sort(cells);
+    answers.sort((a, b) -> Integer.compare(Integer.parseInt(a), Integer.parseInt(b)));
+
+    size = (int) Math.round(Math.sqrt(cells.size() + 1));
+    if (size < 2 || size * size != cells.size() + 1)
+      throw new IllegalArgumentException("The figures " + cells + " do not form a square matrix");
+
+    for (int r = 0; r < size - 1; r++) {
+      rows.add(getRelation(getRow(cells, r)));
+    }
+    for (int c = 0; c < size - 1; c++) {
+      columns.add(getRelation(getColumn(cells, c)));
+    }
+    for (String answer : answers) {
+      List<String> lastRow = getRow(cells, size - 1);
+      List<String> lastColumn = getColumn(cells, size - 1);
+
+      lastRow.add(answer);
+      lastColumn.add(answer);
+      answerRows.put(answer, getRelation(lastRow));
+      answerColumns.put(answer, getRelation(lastColumn));
+    }
+  }
+
+  /**
+   * Returns the pairs of every complete row, from the top row down.
+   *
+   * @return The indexes of the pairs of each row.
+   */
+  public List<int[]> getRows() {
+    return Collections.unmodifiableList(rows);
+  }
+
+  /**
+   * Returns the pairs of every complete column, from the left column on.
+   *
+   * @return The indexes of the pairs of each column.
+   */
+  public List<int[]> getColumns() {
+    return Collections.unmodifiableList(columns);
+  }
+
+  /**
+   * Returns the names of the answer figures in ascending order.
+   *
+   * @return The answer figure names.
+   */
+  public Collection<String> getAnswers() {
+    return Collections.unmodifiableSet(answerRows.keySet());
+  }
+
+  /**
+   * Returns the pairs of the last row completed by an answer.
+   *
+   * @param answer The name of the answer figure.
+   * @return The indexes of the pairs of the row.
+   */
+  public int[] getAnswerRow(String answer) {
+    return answerRows.get(answer);
+  }
+
+  /**
+   * Returns the pairs of the last column completed by an answer.
+   *
+   * @param answer The name of the answer figure.
+   * @return The indexes of the pairs of the column.
+   */
+  public int[] getAnswerColumn(String answer) {
+    return answerColumns.get(answer);
+  }
+
+  /**
+   * Creates one command per distinct pair of figures at an abstraction
+   * level, taking the encodings from the problem's encoding cache.
+   *
+   * @param cache The encoding cache of the problem.
+   * @param abstractionLevel
+   * @param cancellation The cancellation of the batch the commands run in.
+   * @return The commands, indexed like the pairs.
+   */
+  public List<MutualFractalsCommand> createCommands(FractalEncodingCache cache, int abstractionLevel,
+                                                    Cancellation cancellation) {
+    List<MutualFractalsCommand> commands = new ArrayList<>(pairs.size());
+
+    for (Pair<String, String> pair : pairs) {
+      commands.add(new MutualFractalsCommand(cache, pair.getElement0(), pair.getElement1(), abstractionLevel,
+          cancellation));
+    }
+
+    return commands;
+  }
+
+  private List<String> getRow(List<String> cells, int row) {
+    List<String> figures = new ArrayList<>();
+
+    for (int column = 0; column < size && row * size + column < cells.size(); column++) {
+      figures.add(cells.get(row * size + column));
+    }
+
+    return figures;
+  }
+
+  private List<String> getColumn(List<String> cells, int column) {
+    List<String> figures = new ArrayList<>();
+
+    for (int row = 0; row < size && row * size + column < cells.size(); row++) {
+      figures.add(cells.get(row * size + column));
+    }
+
+    return figures;
+  }
+
+  /**
+   * Returns the pairs of every two figures of a row or column, numbering the
+   * pairs not used before.
+   *
+   * @param figures The figures of the row or column, in order.
+   * @return The indexes of the pairs.
+   */
+  private int[] getRelation(List<String> figures) {
+    int[] relation = new int[figures.size() * (figures.size() - 1) / 2];
+    int k = 0;
+
+    for (int i = 0; i < figures.size(); i++) {
+      for (int j = i + 1; j < figures.size(); j++) {
+        Pair<String, String> pair = new Pair<>(figures.get(i), figures.get(j));
+        Integer index = pairIndexes.get(pair);
+
+        if (index == null) {
+          index = pairs.size();
+          pairs.add(pair);
+          pairIndexes.put(pair, index);
+        }
+        relation[k++] = index;
+      }
+    }
+
+    return relation;
+  }
+}
@@ -0,0 +1,35 @@
+package ravensproject;
+
+/**
+ * The strategies FractalsCommand can use to find the source fragment and
+ * transformation that best correspond to a destination fragment.
+ */
+public enum SearchMode {
+
+  // Compare every source fragment under every transformation in full
+  EXHAUSTIVE,
+  // Visit the most promising source fragments first and stop comparing a
+  // candidate as soon as it cannot beat the best match found so far. Finds
+  // the same matches as EXHAUSTIVE.
+  BOUNDED,
+  // Score every pair of fragments at once with BlockCorrelationEngine. Finds
+  // the same matches as EXHAUSTIVE and is fastest on fine grids.
+  CORRELATION,
+  // Sort the transformed source fragments into classes with
+  // FragmentClassifier and only compare a destination fragment with the
+  // source fragments of its class, falling back to BOUNDED when the class is
+  // empty. Fast, but may miss the best match.
+  CLASSIFIED,
+  // Use CORRELATION on fine grids and BOUNDED otherwise
+  AUTOMATIC;
+
+  /**
+   * Returns true when the search always finds the same matches as
+   * EXHAUSTIVE.
+   *
+   * @return True for an exact search.
+   */
+  public boolean isExact() {
+    return this != CLASSIFIED;
+  }
+}